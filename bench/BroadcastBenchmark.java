@@ -0,0 +1,203 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//JAVAC_OPTIONS -proc:full
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
+//SOURCES ../common/IntSet.java
+//SOURCES ../common/ConcurrentIntSet.java
+//SOURCES ../common/IntList.java
+//SOURCES ../common/IntervalSet.java
+//SOURCES ../common/PackedInts.java
+//SOURCES ../common/JsonIntArray.java
+//SOURCES ../common/BucketDigest.java
+//SOURCES ../common/RttEstimator.java
+//SOURCES ../common/VirtualClock.java
+//SOURCES ../step-3/SolutionGoal3.java
+//SOURCES NullTransport.java
+//SOURCES BroadcastFixtures.java
+//SOURCES Fixtures.java
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * BroadcastBenchmark - SolutionGoal3's handlers, one message at a time
+ *
+ * Each benchmark hands a complete JSON line to a node running
+ * BroadcastServer, so it measures what a message really costs: decoding, the
+ * handler, and encoding the reply and whatever gets forwarded. The node is n0
+ * in a three-node cluster, with n1 and n2 as neighbors, and its timers never
+ * fire; see BroadcastFixtures.
+ * - broadcastNew: a client broadcasts a value the node has never seen
+ * - broadcastDuplicate: the same value again, which stops at the dedup check
+ * - gossipMerge: a gossip from n1 with a batch of new values, forwarded to n2
+ * - read: a read once the node holds 10k to 1M values
+ *
+ * Runs with the GC profiler: gc.alloc.rate.norm is the bytes allocated per
+ * operation. The solution's system properties can be set for the forked JVM,
+ * e.g. jbang BroadcastBenchmark.java -jvmArgsAppend -Dgossip.encoding=packed
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final byte[] BROADCAST_PREFIX = ("{\"src\":\"c1\",\"dest\":\"n0\",\"body\":"
+            + "{\"type\":\"broadcast\",\"msg_id\":1,\"message\":").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] READ = ("{\"src\":\"c1\",\"dest\":\"n0\",\"body\":"
+            + "{\"type\":\"read\",\"msg_id\":1}}").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A fresh node per iteration, so the values broadcastNew adds don't pile
+     * up for the whole run.
+     */
+    @State(Scope.Thread)
+    public static class Broadcasts {
+        ObjIntConsumer<byte[]> node;
+        final byte[] line = new byte[BROADCAST_PREFIX.length + 12];
+        int nextValue;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            node = Fixtures.create("BroadcastFixtures", "node");
+            nextValue = 0;
+            node.accept(line, broadcastLine(line, nextValue++));
+        }
+    }
+
+    /**
+     * A gossip line carrying {@code values} values; the node is recreated
+     * before every merge, so they are always new.
+     */
+    @State(Scope.Thread)
+    public static class Gossip {
+        @Param({"1000", "100000"})
+        int values;
+
+        byte[] line;
+        ObjIntConsumer<byte[]> node;
+
+        @Setup(Level.Trial)
+        public void encode() {
+            line = gossipLine(values);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            node = Fixtures.create("BroadcastFixtures", "node");
+        }
+    }
+
+    /**
+     * A node that already holds {@code values} values.
+     */
+    @State(Scope.Thread)
+    public static class Reads {
+        @Param({"10000", "100000", "1000000"})
+        int values;
+
+        ObjIntConsumer<byte[]> node;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            node = Fixtures.create("BroadcastFixtures", "node");
+            byte[] gossip = gossipLine(values);
+            node.accept(gossip, gossip.length);
+        }
+    }
+
+    @Benchmark
+    public ObjIntConsumer<byte[]> broadcastNew(Broadcasts state) {
+        state.node.accept(state.line, broadcastLine(state.line, state.nextValue++));
+        return state.node;
+    }
+
+    @Benchmark
+    public ObjIntConsumer<byte[]> broadcastDuplicate(Broadcasts state) {
+        state.node.accept(state.line, broadcastLine(state.line, 0));
+        return state.node;
+    }
+
+    @Benchmark
+    public ObjIntConsumer<byte[]> gossipMerge(Gossip state) {
+        state.node.accept(state.line, state.line.length);
+        return state.node;
+    }
+
+    @Benchmark
+    public ObjIntConsumer<byte[]> read(Reads state) {
+        state.node.accept(READ, READ.length);
+        return state.node;
+    }
+
+    /**
+     * A delta gossip from n1 with the values 0 to count - 1.
+     */
+    static byte[] gossipLine(int count) {
+        StringBuilder text = new StringBuilder("{\"src\":\"n1\",\"dest\":\"n0\",\"body\":"
+                + "{\"type\":\"gossip\",\"msg_id\":5,\"messages\":[");
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : ",").append(i);
+        }
+        return text.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a broadcast of {@code value} into {@code line} without
+     * allocating, so the benchmark's own bytes/op stay at zero.
+     *
+     * @return The length of the line
+     */
+    static int broadcastLine(byte[] line, int value) {
+        System.arraycopy(BROADCAST_PREFIX, 0, line, 0, BROADCAST_PREFIX.length);
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = BROADCAST_PREFIX.length + digits;
+        for (int i = end - 1; i >= BROADCAST_PREFIX.length; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        line[end] = '}';
+        line[end + 1] = '}';
+        return end + 2;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
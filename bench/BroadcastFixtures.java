@@ -0,0 +1,32 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * BroadcastFixtures - The node behind BroadcastBenchmark
+ */
+public class BroadcastFixtures {
+    /**
+     * n0 running BroadcastServer in a three-node cluster, initialized and
+     * given n1 and n2 as neighbors. Its clock is a {@link VirtualClock} that
+     * never runs, so no gossip round or outbox flush fires behind the
+     * benchmark's back, and its output goes to a {@link NullTransport}.
+     *
+     * @return Hands a line, of the given length, to the node; the handler runs
+     *         on the calling thread
+     */
+    public static ObjIntConsumer<byte[]> node() {
+        MaelstromNode node = new MaelstromNode(new NullTransport(), new VirtualClock(), new Random(1));
+        new BroadcastServer(node);
+        receive(node, "{\"src\":\"c0\",\"dest\":\"n0\",\"body\":{\"type\":\"init\",\"msg_id\":1,"
+                + "\"node_id\":\"n0\",\"node_ids\":[\"n0\",\"n1\",\"n2\"]}}");
+        receive(node, "{\"src\":\"c0\",\"dest\":\"n0\",\"body\":{\"type\":\"topology\",\"msg_id\":2,"
+                + "\"topology\":{\"n0\":[\"n1\",\"n2\"],\"n1\":[\"n0\"],\"n2\":[\"n0\"]}}}");
+        return (line, length) -> node.receive(line, 0, length);
+    }
+
+    private static void receive(MaelstromNode node, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        node.receive(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,111 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//JAVAC_OPTIONS -proc:full
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES CodecFixtures.java
+//SOURCES Fixtures.java
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * CodecBenchmark - Decoding and encoding of single messages
+ *
+ * Every message a node handles goes through MessageDecoder.decode once, and
+ * every reply through MessageEncoder.encode, so these are
+ * the per-message floor of every workload:
+ * - decode: an echo request, and a node-to-node batch of ints
+ * - encode: an echo_ok reply, into an encoder that is reset after each one,
+ *   as the runtime does
+ *
+ * Runs with the GC profiler: gc.alloc.rate.norm is the bytes allocated per
+ * operation. JMH options can be passed as usual, e.g.
+ *   jbang CodecBenchmark.java -p values=1000 -f 1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final byte[] ECHO = ("{\"src\":\"c1\",\"dest\":\"n1\",\"body\":"
+            + "{\"type\":\"echo\",\"msg_id\":1,\"echo\":\"Please echo 35\"}}").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A broadcast_batch line with {@code values} ints.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        @Param({"10", "1000"})
+        int values;
+
+        byte[] line;
+
+        @Setup
+        public void setUp() {
+            StringBuilder text = new StringBuilder("{\"src\":\"n2\",\"dest\":\"n1\",\"body\":"
+                    + "{\"type\":\"broadcast_batch\",\"msg_id\":7,\"messages\":[");
+            for (int i = 0; i < values; i++) {
+                text.append(i == 0 ? "" : ",").append(i * 3);
+            }
+            line = text.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private Function<byte[], Object> decoder;
+    private IntSupplier echoReplyEncoder;
+
+    @Setup
+    public void setUp() {
+        decoder = Fixtures.create("CodecFixtures", "decoder");
+        echoReplyEncoder = Fixtures.create("CodecFixtures", "echoReplyEncoder");
+    }
+
+    @Benchmark
+    public Object decodeEcho() {
+        return decoder.apply(ECHO);
+    }
+
+    @Benchmark
+    public Object decodeBatch(Batch batch) {
+        return decoder.apply(batch.line);
+    }
+
+    @Benchmark
+    public int encodeEchoReply() {
+        return echoReplyEncoder.getAsInt();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
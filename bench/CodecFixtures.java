@@ -0,0 +1,47 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * CodecFixtures - The decoder and encoder behind CodecBenchmark
+ */
+public class CodecFixtures {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Decodes a whole line into a {@link Message}.
+     */
+    public static Function<byte[], Object> decoder() {
+        MessageDecoder decoder = new MessageDecoder(MAPPER);
+        return line -> {
+            try {
+                return decoder.decode(line, 0, line.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Encodes an echo_ok reply, then resets the encoder as the runtime does
+     * once a reply is written.
+     *
+     * @return The size of the encoded reply
+     */
+    public static IntSupplier echoReplyEncoder() throws IOException {
+        MessageEncoder encoder = new MessageEncoder(MAPPER);
+        return () -> {
+            try {
+                encoder.encode("n1", "c1", "echo_ok", -1, 1, body -> body.writeStringField("echo", "Please echo 35"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int size = encoder.size();
+            encoder.reset();
+            return size;
+        };
+    }
+}
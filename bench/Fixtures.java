@@ -0,0 +1,50 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Fixtures - Reaches the default package from the benchmarks
+ *
+ * JMH refuses benchmark classes in the default package, and a class in a
+ * named package can't refer to one in the default package, which is where
+ * common/ and every solution live. So each benchmark has a default-package
+ * fixtures class (CodecFixtures, BroadcastFixtures...) that builds what it
+ * measures and hands it over as a java.util.function type; the benchmark
+ * looks it up here, by reflection, once per setup. The measured calls are
+ * plain interface calls, which the JIT inlines like any other.
+ *
+ * Nodes log every message they handle to STDERR; writing that out would be
+ * most of what gets measured, so STDERR is discarded in the benchmark JVM
+ * unless the benchmark runs with -jvmArgsAppend -Dbench.stderr=true. The
+ * log lines are still built.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * Calls the public static method {@code method} of the default-package
+     * class {@code fixtures}.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T create(String fixtures, String method, Object... args) {
+        if (!Boolean.getBoolean("bench.stderr")) {
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        try {
+            for (Method candidate : Class.forName(fixtures).getMethods()) {
+                if (candidate.getName().equals(method) && candidate.getParameterCount() == args.length) {
+                    return (T) candidate.invoke(null, args);
+                }
+            }
+            throw new IllegalArgumentException("No method " + fixtures + "." + method);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Fixture " + fixtures + "." + method + " failed", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't call " + fixtures + "." + method, e);
+        }
+    }
+}
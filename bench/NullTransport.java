@@ -0,0 +1,31 @@
+/**
+ * NullTransport - Discards everything a node sends
+ *
+ * Benchmarks feed messages to a node with {@link MaelstromNode#receive} and
+ * only want the cost of handling them, encoding the replies included. This
+ * transport drops the bytes right away instead of handing them to a writer
+ * thread, but counts them so the work can't be optimized out.
+ */
+class NullTransport implements MaelstromNode.Transport {
+    private long messages = 0;
+    private long bytes = 0;
+
+    @Override
+    public void write(byte[] data, int offset, int length, int messageCount) {
+        messages += messageCount;
+        bytes += length;
+    }
+
+    long messages() {
+        return messages;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String stats() {
+        return "discarded " + messages + " messages, " + bytes + " bytes";
+    }
+}
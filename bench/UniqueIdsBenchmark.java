@@ -0,0 +1,85 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//JAVAC_OPTIONS -proc:full
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
+//SOURCES ../common/VirtualClock.java
+//SOURCES ../step-2/SolutionUniqueIds.java
+//SOURCES NullTransport.java
+//SOURCES UniqueIdsFixtures.java
+//SOURCES Fixtures.java
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * UniqueIdsBenchmark - One generate request, from JSON line to generate_ok
+ *
+ * Hands generate requests to a node running UniqueIdServer (see
+ * UniqueIdsFixtures), with its output going nowhere, for both ID formats: "string" (node ID and counter)
+ * and "snowflake" (a time-sortable long). The snowflake generator reads the
+ * node's virtual clock, so past 4096 IDs in a millisecond the request is
+ * retried on a timer that the fixture runs at once: that deferral is part of
+ * what is measured, but not a real millisecond of waiting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UniqueIdsBenchmark {
+    private static final byte[] GENERATE = ("{\"src\":\"c1\",\"dest\":\"n0\",\"body\":"
+            + "{\"type\":\"generate\",\"msg_id\":1}}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"string", "snowflake"})
+    String format;
+
+    private ObjIntConsumer<byte[]> node;
+
+    @Setup
+    public void setUp() {
+        node = Fixtures.create("UniqueIdsFixtures", "node", format);
+    }
+
+    @Benchmark
+    public ObjIntConsumer<byte[]> generate() {
+        node.accept(GENERATE, GENERATE.length);
+        return node;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
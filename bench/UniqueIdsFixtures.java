@@ -0,0 +1,35 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * UniqueIdsFixtures - The node behind UniqueIdsBenchmark
+ */
+public class UniqueIdsFixtures {
+    /**
+     * n0 running UniqueIdServer with the ID format {@code format}, initialized,
+     * with its output going to a {@link NullTransport}.
+     *
+     * @return Hands a line, of the given length, to the node; the handler runs
+     *         on the calling thread. A snowflake ID that had to wait for the
+     *         next millisecond comes from a timer, which is run right away,
+     *         moving the node's virtual clock to that millisecond.
+     */
+    public static ObjIntConsumer<byte[]> node(String format) {
+        // UniqueIdServer picks its format when constructed
+        System.setProperty("uniqueids.format", format);
+        NullTransport transport = new NullTransport();
+        VirtualClock clock = new VirtualClock();
+        MaelstromNode node = new MaelstromNode(transport, clock, new Random(1));
+        new UniqueIdServer(node);
+        byte[] init = ("{\"src\":\"c0\",\"dest\":\"n0\",\"body\":{\"type\":\"init\",\"msg_id\":1,"
+                + "\"node_id\":\"n0\",\"node_ids\":[\"n0\",\"n1\",\"n2\"]}}").getBytes(StandardCharsets.UTF_8);
+        node.receive(init, 0, init.length);
+        return (line, length) -> {
+            long replies = transport.messages();
+            node.receive(line, 0, length);
+            clock.runUntil(() -> transport.messages() > replies, clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1));
+        };
+    }
+}
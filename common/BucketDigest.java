@@ -0,0 +1,76 @@
+/**
+ * BucketDigest - Compact summary of a set of ints, for anti-entropy
+ *
+ * Values are hashed into a fixed number of buckets, and each bucket keeps the
+ * XOR of its values' hashes. Two nodes holding the same values have the same
+ * digest, whatever order they learned them in. When the digests differ, the
+ * buckets that differ say which values are worth exchanging, so reconciliation
+ * only ships those buckets instead of the whole set.
+ *
+ * The digest is updated as values are added, so producing it costs nothing.
+ * Only additions are supported: XOR would allow removals too, but the sets it
+ * summarizes only grow.
+ */
+class BucketDigest {
+    private final int[] hashes;
+    private final int shift;
+
+    /**
+     * @param buckets Number of buckets, rounded up to a power of two
+     */
+    BucketDigest(int buckets) {
+        int count = Integer.highestOneBit(Math.max(2, buckets) * 2 - 1);
+        hashes = new int[count];
+        shift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * Folds a value into its bucket. Must be called once per distinct value.
+     */
+    synchronized void add(int value) {
+        hashes[bucket(value)] ^= mix(value * 0xCC9E2D51 + 0x632BE5AB);
+    }
+
+    int bucketCount() {
+        return hashes.length;
+    }
+
+    /**
+     * Bucket a value falls into.
+     */
+    int bucket(int value) {
+        return mix(value) >>> shift;
+    }
+
+    synchronized int[] toArray() {
+        return hashes.clone();
+    }
+
+    /**
+     * Buckets whose hash differs from {@code other}, another node's
+     * {@link #toArray()}. A digest with a different bucket count differs
+     * everywhere.
+     */
+    synchronized IntList differingBuckets(int[] other) {
+        IntList buckets = new IntList();
+        for (int i = 0; i < hashes.length; i++) {
+            if (other.length != hashes.length || other[i] != hashes[i]) {
+                buckets.add(i);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Murmur3's finalizer: every input bit affects every output bit, so runs
+     * of consecutive values land in unrelated buckets.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * ConcurrentIntSet - Thread-safe set of primitive ints
+ *
+ * A drop-in for ConcurrentHashMap.newKeySet() of Integers without the boxing.
+ * Values are spread over a fixed number of {@link IntSet} stripes by hash, and
+ * each stripe has its own lock, so threads adding different values rarely
+ * wait for each other.
+ *
+ * Iteration locks one stripe at a time: it sees every value added before the
+ * call, and may or may not see values added concurrently.
+ */
+class ConcurrentIntSet {
+    private final IntSet[] stripes;
+    private final int mask;
+
+    ConcurrentIntSet() {
+        this(16);
+    }
+
+    /**
+     * @param stripeCount Number of independently locked stripes, rounded up to a power of two
+     */
+    ConcurrentIntSet(int stripeCount) {
+        int count = Integer.highestOneBit(Math.max(1, stripeCount) * 2 - 1);
+        stripes = new IntSet[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new IntSet();
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * @return true if the value was not already in the set
+     */
+    boolean add(int value) {
+        IntSet stripe = stripe(value);
+        synchronized (stripe) {
+            return stripe.add(value);
+        }
+    }
+
+    boolean contains(int value) {
+        IntSet stripe = stripe(value);
+        synchronized (stripe) {
+            return stripe.contains(value);
+        }
+    }
+
+    /**
+     * @return true if the value was in the set
+     */
+    boolean remove(int value) {
+        IntSet stripe = stripe(value);
+        synchronized (stripe) {
+            return stripe.remove(value);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (IntSet stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        for (IntSet stripe : stripes) {
+            synchronized (stripe) {
+                if (!stripe.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calls {@code action} for every value. The action runs while a stripe
+     * lock is held, so it must not call back into this set.
+     */
+    <E extends Exception> void forEach(IntSet.IntProcedure<E> action) throws E {
+        for (IntSet stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(action);
+            }
+        }
+    }
+
+    private IntSet stripe(int value) {
+        // Different bits than IntSet's own slot hash, so a stripe's table stays evenly filled
+        int h = value * 0x85EBCA6B;
+        return stripes[(h >>> 24) & mask];
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Arrays;
+
+/**
+ * IntList - Growable list of primitive ints
+ *
+ * The int counterpart of ArrayList<Integer>, without a boxed Integer per
+ * element. Not thread-safe.
+ */
+class IntList {
+    private int[] values;
+    private int size = 0;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int initialCapacity) {
+        values = new int[Math.max(1, initialCapacity)];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empties the list, keeping its capacity.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Calls {@code action} for every value, in order.
+     */
+    <E extends Exception> void forEach(IntSet.IntProcedure<E> action) throws E {
+        for (int i = 0; i < size; i++) {
+            action.accept(values[i]);
+        }
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.Arrays;
+
+/**
+ * IntSet - Set of primitive ints using open addressing
+ *
+ * A HashSet<Integer> costs a boxed Integer plus a HashMap.Node per value,
+ * around 50 bytes, and every lookup chases a couple of pointers. This set
+ * stores the values themselves in one int[] with linear probing, so it costs
+ * 4-8 bytes per value and a lookup usually touches a single cache line.
+ *
+ * Slot value 0 means "empty", so the value 0 itself is tracked by a flag.
+ *
+ * Not thread-safe; see {@link ConcurrentIntSet}.
+ */
+class IntSet {
+    /**
+     * Callback for {@link #forEach}; may throw, e.g. an IOException while
+     * writing the values out.
+     */
+    @FunctionalInterface
+    interface IntProcedure<E extends Exception> {
+        void accept(int value) throws E;
+    }
+
+    private static final int EMPTY = 0;
+
+    private int[] slots;
+    private int mask;
+    private int size = 0; // values stored in slots, i.e. excluding 0
+    private boolean hasZero = false;
+    private int resizeAt;
+
+    IntSet() {
+        this(16);
+    }
+
+    IntSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @return true if the value was not already in the set
+     */
+    boolean add(int value) {
+        if (value == EMPTY) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        int i = slot(value);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        if (++size >= resizeAt) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        if (value == EMPTY) {
+            return hasZero;
+        }
+        int i = slot(value);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @return true if the value was in the set
+     */
+    boolean remove(int value) {
+        if (value == EMPTY) {
+            boolean removed = hasZero;
+            hasZero = false;
+            return removed;
+        }
+        int i = slot(value);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                shiftBack(i);
+                size--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        hasZero = false;
+    }
+
+    /**
+     * Calls {@code action} for every value, in no particular order.
+     */
+    <E extends Exception> void forEach(IntProcedure<E> action) throws E {
+        if (hasZero) {
+            action.accept(0);
+        }
+        for (int value : slots) {
+            if (value != EMPTY) {
+                action.accept(value);
+            }
+        }
+    }
+
+    int[] toArray() {
+        int[] values = new int[size()];
+        int n = 0;
+        if (hasZero) {
+            values[n++] = 0;
+        }
+        for (int value : slots) {
+            if (value != EMPTY) {
+                values[n++] = value;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * Scrambles the value so that runs of consecutive ints (the common case
+     * for Maelstrom broadcast values) spread over the whole table.
+     */
+    private int slot(int value) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Linear-probing deletion: move later entries of the same probe run back
+     * so that lookups never stop early at the hole we just made.
+     */
+    private void shiftBack(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            int value = slots[i];
+            if (value == EMPTY) {
+                break;
+            }
+            int home = slot(value);
+            // Move value into the hole unless its home lies cyclically in (hole, i]
+            boolean homeBetween = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (!homeBetween) {
+                slots[hole] = value;
+                hole = i;
+            }
+        }
+        slots[hole] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = slots;
+        allocate(capacity);
+        for (int value : old) {
+            if (value != EMPTY) {
+                int i = slot(value);
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        // Keep the table at most 2/3 full so probe runs stay short
+        resizeAt = capacity * 2 / 3;
+    }
+}
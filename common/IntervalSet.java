@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+/**
+ * IntervalSet - Set of ints stored as sorted, disjoint ranges
+ *
+ * Maelstrom's broadcast values are small and dense: after a while a node has
+ * seen 0..n with maybe a few holes. An {@link IntSet} still spends a slot per
+ * value, while this set spends two ints per run of consecutive values, so
+ * 100 000 contiguous values cost 8 bytes instead of a few hundred kilobytes.
+ * Lookups are a binary search over the ranges, and iteration yields the
+ * values in ascending order.
+ *
+ * Adding a value that does not touch an existing range inserts a new one,
+ * which shifts the ranges after it; sparse sets are therefore better off in
+ * an IntSet.
+ *
+ * Not thread-safe.
+ */
+class IntervalSet {
+    /**
+     * Callback for {@link #forEachRange}; both bounds are inclusive.
+     */
+    @FunctionalInterface
+    interface RangeProcedure<E extends Exception> {
+        void accept(int start, int end) throws E;
+    }
+
+    // Range i covers starts[i]..ends[i], inclusive; ranges are sorted and
+    // never touch each other (ends[i] + 1 < starts[i + 1])
+    private int[] starts;
+    private int[] ends;
+    private int rangeCount = 0;
+    private long size = 0;
+
+    IntervalSet() {
+        this(8);
+    }
+
+    IntervalSet(int initialRanges) {
+        starts = new int[Math.max(1, initialRanges)];
+        ends = new int[starts.length];
+    }
+
+    /**
+     * Adds a value, merging it into the adjacent ranges.
+     *
+     * @return true if the value was not already in the set
+     */
+    boolean add(int value) {
+        // First range starting after the value; the one before may contain it
+        int next = upperBound(value);
+        int prev = next - 1;
+        if (prev >= 0 && ends[prev] >= value) {
+            return false;
+        }
+        boolean joinsPrev = prev >= 0 && (long) ends[prev] + 1 == value;
+        boolean joinsNext = next < rangeCount && (long) starts[next] - 1 == value;
+        if (joinsPrev && joinsNext) {
+            // The value fills the only hole between two ranges
+            ends[prev] = ends[next];
+            System.arraycopy(starts, next + 1, starts, next, rangeCount - next - 1);
+            System.arraycopy(ends, next + 1, ends, next, rangeCount - next - 1);
+            rangeCount--;
+        } else if (joinsPrev) {
+            ends[prev] = value;
+        } else if (joinsNext) {
+            starts[next] = value;
+        } else {
+            insertRange(next, value);
+        }
+        size++;
+        return true;
+    }
+
+    boolean contains(int value) {
+        int prev = upperBound(value) - 1;
+        return prev >= 0 && ends[prev] >= value;
+    }
+
+    /**
+     * Number of values; a long because a set can hold all 2^32 ints.
+     */
+    long size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int rangeCount() {
+        return rangeCount;
+    }
+
+    void clear() {
+        rangeCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Calls {@code action} for every value, in ascending order.
+     */
+    <E extends Exception> void forEach(IntSet.IntProcedure<E> action) throws E {
+        for (int i = 0; i < rangeCount; i++) {
+            int end = ends[i];
+            for (int value = starts[i]; ; value++) {
+                action.accept(value);
+                if (value == end) {
+                    break; // not value <= end, which never fails for end == MAX_VALUE
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls {@code action} for every range, in ascending order.
+     */
+    <E extends Exception> void forEachRange(RangeProcedure<E> action) throws E {
+        for (int i = 0; i < rangeCount; i++) {
+            action.accept(starts[i], ends[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < rangeCount; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(starts[i]);
+            if (ends[i] != starts[i]) {
+                text.append("..").append(ends[i]);
+            }
+        }
+        return text.append(']').toString();
+    }
+
+    /**
+     * Index of the first range whose start is greater than {@code value}.
+     */
+    private int upperBound(int value) {
+        int low = 0;
+        int high = rangeCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void insertRange(int index, int value) {
+        if (rangeCount == starts.length) {
+            starts = Arrays.copyOf(starts, rangeCount * 2);
+            ends = Arrays.copyOf(ends, rangeCount * 2);
+        }
+        System.arraycopy(starts, index, starts, index + 1, rangeCount - index);
+        System.arraycopy(ends, index, ends, index + 1, rangeCount - index);
+        starts[index] = value;
+        ends[index] = value;
+        rangeCount++;
+    }
+}
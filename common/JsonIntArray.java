@@ -0,0 +1,64 @@
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * JsonIntArray - An append-only list of ints kept as its JSON text
+ *
+ * A read in the broadcast workload returns every value seen so far, so
+ * serializing the set on each read costs O(n) number formatting per read.
+ * This keeps the array already serialized, "[1,2,3" without the closing
+ * bracket, and formats each value once, when it is appended. Writing it out
+ * is a single raw copy of the characters.
+ *
+ * Appends only ever write past the current length, so a writer can take the
+ * (chars, length) snapshot under the lock and copy it without holding it.
+ */
+class JsonIntArray {
+    private char[] chars = new char[256];
+    private int length = 0;
+    private int count = 0;
+
+    JsonIntArray() {
+        chars[length++] = '[';
+    }
+
+    synchronized void add(int value) {
+        String digits = Integer.toString(value);
+        ensureCapacity(length + digits.length() + 1);
+        if (count > 0) {
+            chars[length++] = ',';
+        }
+        digits.getChars(0, digits.length(), chars, length);
+        length += digits.length();
+        count++;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Writes {@code "name":[...]} into the current object.
+     */
+    void writeField(JsonGenerator gen, String name) throws IOException {
+        char[] snapshot;
+        int snapshotLength;
+        synchronized (this) {
+            snapshot = chars;
+            snapshotLength = length;
+        }
+        gen.writeFieldName(name);
+        // Raw value so the generator still places the separators itself
+        gen.writeRawValue(snapshot, 0, snapshotLength);
+        gen.writeRaw(']');
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > chars.length) {
+            // A new array, so snapshots handed out earlier stay untouched
+            chars = Arrays.copyOf(chars, Math.max(needed, chars.length * 2));
+        }
+    }
+}
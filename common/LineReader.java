@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * LineReader - Buffered, byte-level reader for newline-delimited messages
+ *
+ * Maelstrom sends one JSON message per line on STDIN. Instead of going through
+ * Scanner (which decodes to chars and runs a regex per line), this reader fills
+ * a large byte buffer straight from the stream and hands out each line as a
+ * slice of that buffer, so the JSON parser can work on the raw UTF-8 bytes.
+ *
+ * The slice returned by {@link #next()} is only valid until the next call.
+ */
+class LineReader {
+    private final InputStream in;
+    private byte[] buffer;
+
+    // Unconsumed bytes live in buffer[position, limit)
+    private int position = 0;
+    private int limit = 0;
+
+    // Index of the next '\n' in the buffer, or -1 if not scanned yet / not present
+    private int nextNewline = -1;
+
+    // The line handed out by the last call to next()
+    private int lineStart = 0;
+    private int lineLength = 0;
+
+    LineReader(InputStream in) {
+        this(in, 64 * 1024);
+    }
+
+    LineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Advances to the next line, blocking until one is available.
+     *
+     * @return false once the stream is exhausted
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int newline = findNewline();
+            if (newline >= 0) {
+                setLine(position, newline);
+                position = newline + 1;
+                nextNewline = -1;
+                return true;
+            }
+            if (!fill()) {
+                // End of stream: hand out a trailing line without '\n', if any
+                if (position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns true if a complete line is already buffered, i.e. the next call
+     * to {@link #next()} will not block on the underlying stream.
+     */
+    boolean hasBufferedLine() {
+        return findNewline() >= 0;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineLength() {
+        return lineLength;
+    }
+
+    /**
+     * Returns the current line decoded as a String. Only meant for error reporting.
+     */
+    String lineAsString() {
+        return new String(buffer, lineStart, lineLength, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private void setLine(int start, int end) {
+        // Tolerate CRLF line endings
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineLength = end - start;
+    }
+
+    private int findNewline() {
+        if (nextNewline >= position) {
+            return nextNewline;
+        }
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                nextNewline = i;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads more bytes from the stream, compacting or growing the buffer first.
+     *
+     * @return false on end of stream
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            // Move the partial line to the front of the buffer
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            nextNewline = -1;
+        }
+        if (limit == buffer.length) {
+            // A single line is larger than the whole buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
@@ -0,0 +1,469 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MaelstromNode - Shared runtime for Maelstrom nodes
+ *
+ * Every solution used to copy the same main loop: read a line with a Scanner,
+ * parse it into a JsonNode, pick a handler with an if/else on the message type
+ * and println the reply. This class does that work once:
+ * 1. Reads STDIN through a buffered, byte-level {@link LineReader}
+ * 2. Decodes each line in a single streaming pass with {@link MessageDecoder}
+ *    and routes it to the handler registered for its body type
+ * 3. Encodes outbound messages with a reusable {@link MessageEncoder} and hands
+ *    them to an {@link OutboundWriter}, whose own thread writes and flushes
+ *    STDOUT once per batch instead of once per line
+ *
+ * It also answers the init message itself, so nodeId() and nodeIds() are
+ * available to every handler.
+ *
+ * Handlers run on the reading thread unless the node opts into
+ * {@link #dispatchOnVirtualThreads()}; see {@link Ordering} for what is then
+ * guaranteed about the order in which handlers run.
+ *
+ * Servers take the time, their timers and their randomness from {@link #clock()}
+ * and {@link #random()} rather than from the JVM, so a simulator can run them
+ * in virtual time with a seeded random source (see {@link VirtualClock}).
+ *
+ * Include it from a JBang script with:
+ *   //SOURCES ../common/LineReader.java
+ *   //SOURCES ../common/Message.java
+ *   //SOURCES ../common/MessageDecoder.java
+ *   //SOURCES ../common/MessageEncoder.java
+ *   //SOURCES ../common/OutboundWriter.java
+ *   //SOURCES ../common/VirtualThreadDispatcher.java
+ *   //SOURCES ../common/NodeClock.java
+ *   //SOURCES ../common/MaelstromNode.java
+ *
+ * Remember:
+ * - All messages to Maelstrom must be sent to STDOUT
+ * - All debug logging must be sent to STDERR
+ * - Never mix protocol messages and debug output on the same stream
+ */
+class MaelstromNode {
+    /**
+     * Handles one inbound message. Replies are sent through the node,
+     * not returned.
+     */
+    @FunctionalInterface
+    interface Handler {
+        void handle(Message message) throws Exception;
+    }
+
+    /**
+     * How a handler is ordered relative to other handlers when the node
+     * dispatches on virtual threads. Without virtual threads every handler
+     * runs on the reading thread, one after the other, whatever its ordering.
+     */
+    enum Ordering {
+        /** Messages from the same src are handled one at a time, in arrival order (the default) */
+        PER_SOURCE,
+        /** No ordering: the handler may run concurrently with any other */
+        UNORDERED,
+        /**
+         * The handler runs on the reading thread once every handler already
+         * started has finished, and nothing else starts until it returns.
+         * Use it for messages that reshape state everyone reads, like topology.
+         */
+        BARRIER
+    }
+
+    private record Registration(Handler handler, Ordering ordering) {
+    }
+
+    /**
+     * Where encoded messages go: STDOUT through an {@link OutboundWriter},
+     * or a simulated network.
+     */
+    interface Transport {
+        /**
+         * Takes one or more complete, newline-terminated messages.
+         */
+        void write(byte[] data, int offset, int length, int messageCount) throws IOException;
+
+        /**
+         * Sends whatever is still buffered; nothing may be written afterwards.
+         */
+        void close() throws IOException;
+
+        String stats();
+    }
+
+    // Bytes of encoded messages that may wait for STDOUT before senders block
+    private static final int OUTBOUND_CAPACITY = 4 * 1024 * 1024;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MessageDecoder decoder = new MessageDecoder(mapper);
+    private final Map<String, Registration> handlers = new HashMap<>();
+    private final Transport writer;
+    private final NodeClock clock;
+    private final Random random;
+
+    // Where debug() writes; a simulator may silence its nodes without touching System.err
+    private volatile PrintStream debugOut = System.err;
+
+    // The read loop encodes into its own encoder and hands a whole batch of
+    // replies to the writer at once; other threads borrow one from the pool
+    private final MessageEncoder readerEncoder;
+    private int readerEncoderMessages = 0;
+    private final ArrayBlockingQueue<MessageEncoder> encoders = new ArrayBlockingQueue<>(64);
+
+    // The thread running the read loop
+    private volatile Thread readerThread;
+
+    // Set when the node opts into running handlers on virtual threads
+    private VirtualThreadDispatcher dispatcher;
+
+    private volatile String nodeId;
+    private volatile List<String> nodeIds = Collections.emptyList();
+
+    // Next msg_id for messages this node sends
+    private final AtomicInteger nextMsgId = new AtomicInteger();
+
+    MaelstromNode() {
+        // Bypass System.out: its PrintStream locks and flushes on every println.
+        // The writer already batches, so no BufferedOutputStream is needed.
+        this(new FileOutputStream(FileDescriptor.out), NodeClock.system(), new Random());
+    }
+
+    MaelstromNode(OutputStream out, NodeClock clock, Random random) {
+        this(new OutboundWriter(out, OUTBOUND_CAPACITY), clock, random);
+    }
+
+    MaelstromNode(Transport transport, NodeClock clock, Random random) {
+        this.writer = transport;
+        this.clock = clock;
+        this.random = random;
+        this.readerEncoder = newEncoder();
+    }
+
+    /**
+     * Registers the handler for messages whose body type is {@code type}.
+     *
+     * Registering "init" adds a hook that runs after nodeId()/nodeIds() are set
+     * and before the runtime sends init_ok.
+     */
+    MaelstromNode on(String type, Handler handler) {
+        return on(type, Ordering.PER_SOURCE, handler);
+    }
+
+    /**
+     * Registers the handler for {@code type} with an explicit ordering, which
+     * only matters once {@link #dispatchOnVirtualThreads()} is enabled.
+     */
+    MaelstromNode on(String type, Ordering ordering, Handler handler) {
+        handlers.put(type, new Registration(handler, ordering));
+        return this;
+    }
+
+    /**
+     * Runs handlers on virtual threads instead of the reading thread, so a
+     * slow handler no longer holds up the messages behind it. Only enable
+     * this if every handler is thread-safe. Must be called before run().
+     */
+    MaelstromNode dispatchOnVirtualThreads() {
+        dispatcher = new VirtualThreadDispatcher();
+        return this;
+    }
+
+    /**
+     * Silently drops messages of the given types, typically acknowledgments
+     * of requests we sent to other nodes.
+     */
+    MaelstromNode ignore(String... types) {
+        for (String type : types) {
+            handlers.put(type, new Registration(message -> { }, Ordering.UNORDERED));
+        }
+        return this;
+    }
+
+    /**
+     * Sends this node's debug output to {@code out} instead of STDERR.
+     * Errors from handlers still go to STDERR.
+     */
+    MaelstromNode debugTo(PrintStream out) {
+        this.debugOut = out;
+        return this;
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+
+    List<String> nodeIds() {
+        return nodeIds;
+    }
+
+    /**
+     * Returns a fresh msg_id for a message this node sends. Safe to call from
+     * handlers and background threads at the same time; wraps around to 0
+     * rather than going negative, since -1 means "no msg_id".
+     */
+    int nextMsgId() {
+        return nextMsgId.getAndUpdate(id -> id == Integer.MAX_VALUE ? 0 : id + 1);
+    }
+
+    ObjectMapper mapper() {
+        return mapper;
+    }
+
+    /**
+     * The time and timers this node's server should use.
+     */
+    NodeClock clock() {
+        return clock;
+    }
+
+    /**
+     * The random source this node's server should use. Thread-safe, like any
+     * java.util.Random.
+     */
+    Random random() {
+        return random;
+    }
+
+    /**
+     * Logs a debug message to STDERR, or wherever {@link #debugTo} points.
+     *
+     * IMPORTANT: Maelstrom protocol requires all debug output to go to STDERR.
+     * Never use System.out for logging as it will corrupt the message protocol.
+     *
+     * @param message The debug message to log
+     */
+    void debug(String message) {
+        debugOut.println("[" + (nodeId != null ? nodeId : "uninit") + "] " + message);
+    }
+
+    /**
+     * Creates an empty message body of the given type.
+     */
+    ObjectNode body(String type) {
+        ObjectNode body = mapper.createObjectNode();
+        body.put("type", type);
+        return body;
+    }
+
+    /**
+     * Replies to {@code request} with a body that only has a type, e.g. broadcast_ok.
+     */
+    void reply(Message request, String type) throws IOException {
+        reply(request, type, null);
+    }
+
+    /**
+     * Replies to {@code request} with a body of the given type whose other
+     * fields are written by {@code fields}. This is the cheap path: nothing
+     * but the bytes on the wire is allocated.
+     */
+    void reply(Message request, String type, MessageEncoder.BodyWriter fields) throws IOException {
+        MessageEncoder encoder = acquireEncoder();
+        encoder.encode(nodeId, request.src(), type, -1, request.msgId(), fields);
+        written(encoder);
+    }
+
+    /**
+     * Sends {@code body} back to the sender of {@code request}, filling in in_reply_to.
+     */
+    void reply(Message request, ObjectNode body) throws IOException {
+        body.put("in_reply_to", request.msgId());
+        send(request.src(), body);
+    }
+
+    /**
+     * Sends a message of the given type to another node or client. Pass -1
+     * as msgId for messages that expect no reply.
+     */
+    void send(String dest, String type, int msgId, MessageEncoder.BodyWriter fields) throws IOException {
+        MessageEncoder encoder = acquireEncoder();
+        encoder.encode(nodeId, dest, type, msgId, -1, fields);
+        written(encoder);
+    }
+
+    /**
+     * Sends a message with the given body to another node or client.
+     */
+    void send(String dest, ObjectNode body) throws IOException {
+        MessageEncoder encoder = acquireEncoder();
+        encoder.encode(nodeId, dest, body);
+        written(encoder);
+    }
+
+    /**
+     * Returns the outbound writer's throughput and backpressure metrics.
+     */
+    String outboundStats() {
+        return writer.stats();
+    }
+
+    private MessageEncoder acquireEncoder() {
+        if (Thread.currentThread() == readerThread) {
+            return readerEncoder;
+        }
+        MessageEncoder encoder = encoders.poll();
+        return encoder != null ? encoder : newEncoder();
+    }
+
+    /**
+     * Passes a freshly encoded message on to the writer. The read loop's
+     * encoder keeps accumulating until the end of the input batch.
+     */
+    private void written(MessageEncoder encoder) throws IOException {
+        if (encoder == readerEncoder) {
+            readerEncoderMessages++;
+            return;
+        }
+        try {
+            writer.write(encoder.array(), 0, encoder.size(), 1);
+        } finally {
+            encoder.reset();
+            encoders.offer(encoder);
+        }
+    }
+
+    private MessageEncoder newEncoder() {
+        try {
+            return new MessageEncoder(mapper);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs the node on STDIN until it is closed.
+     */
+    void run() throws IOException {
+        run(new FileInputStream(FileDescriptor.in));
+    }
+
+    /**
+     * Main loop: read messages from {@code in} and dispatch them to handlers.
+     */
+    void run(InputStream in) throws IOException {
+        readerThread = Thread.currentThread();
+        LineReader reader = new LineReader(in);
+        while (reader.next()) {
+            if (reader.lineLength() > 0) {
+                receive(reader.buffer(), reader.lineStart(), reader.lineLength());
+            }
+            // Only hand replies over when the next read would block, so a
+            // burst of input becomes a single batch for the writer
+            if (!reader.hasBufferedLine() || readerEncoder.size() >= 64 * 1024) {
+                flushReplies();
+            }
+        }
+        flushReplies();
+        if (dispatcher != null) {
+            try {
+                dispatcher.awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writer.close();
+        debug(writer.stats());
+    }
+
+    /**
+     * Decodes one message, without its newline, and dispatches it on the
+     * calling thread. The read loop calls this for every line; a simulator
+     * can call it directly instead of running the loop.
+     */
+    void receive(byte[] buffer, int offset, int length) {
+        try {
+            dispatch(decoder.decode(buffer, offset, length));
+        } catch (Exception e) {
+            // All error logging must go to STDERR
+            System.err.println("Error processing message: " + e.getMessage()
+                    + "\nInput was: " + new String(buffer, offset, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    private void flushReplies() throws IOException {
+        if (readerEncoder.size() > 0) {
+            writer.write(readerEncoder.array(), 0, readerEncoder.size(), readerEncoderMessages);
+            readerEncoder.reset();
+            readerEncoderMessages = 0;
+        }
+    }
+
+    private void dispatch(Message message) throws Exception {
+        if (message.type().equals("init")) {
+            awaitHandlers();
+            handleInit(message);
+            return;
+        }
+
+        Registration registration = handlers.get(message.type());
+        if (registration == null) {
+            debug("Unknown message type: " + message.type());
+        } else if (dispatcher == null) {
+            registration.handler().handle(message);
+        } else {
+            switch (registration.ordering()) {
+                case PER_SOURCE -> dispatcher.submit(message.src(), () -> handleSafely(registration.handler(), message));
+                case UNORDERED -> dispatcher.submit(() -> handleSafely(registration.handler(), message));
+                case BARRIER -> {
+                    awaitHandlers();
+                    registration.handler().handle(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a handler off the reading thread, where nobody else would report its failure.
+     */
+    private void handleSafely(Handler handler, Message message) {
+        try {
+            handler.handle(message);
+        } catch (Exception e) {
+            // All error logging must go to STDERR
+            System.err.println("Error processing message: " + e.getMessage() + "\nMessage was: " + message);
+        }
+    }
+
+    private void awaitHandlers() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.awaitIdle();
+        }
+    }
+
+    /**
+     * Handles the initialization message from Maelstrom.
+     * The init message provides this node's ID and the IDs of all nodes in the cluster.
+     */
+    private void handleInit(Message message) throws Exception {
+        nodeId = message.getString("node_id");
+        List<String> ids = new ArrayList<>();
+        for (JsonNode id : message.get("node_ids")) {
+            ids.add(id.asText());
+        }
+        nodeIds = Collections.unmodifiableList(ids);
+        debug("Node " + nodeId + " initialized with " + nodeIds.size() + " nodes in cluster");
+
+        Registration hook = handlers.get("init");
+        if (hook != null) {
+            hook.handler().handle(message);
+        }
+        reply(message, "init_ok");
+    }
+}
@@ -0,0 +1,204 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Message - An inbound Maelstrom message
+ *
+ * Every Maelstrom message has the same envelope:
+ * {
+ *   "src": "c1",
+ *   "dest": "n1",
+ *   "body": { "type": "echo", "msg_id": 1, ... }
+ * }
+ *
+ * The {@link MessageDecoder} streams the body fields straight into this class:
+ * numbers and strings are kept as scalars, arrays of ints as an int[], and
+ * only other nested values (objects, mixed arrays...) become JsonNode trees.
+ * Hot handlers read fields with {@link #getInt}, {@link #getString} and
+ * {@link #getIntArray}; {@link #body()} still returns the full body as a tree
+ * for handlers that want it, built on first use.
+ */
+class Message {
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    // Marks a field whose value lives in numbers[] rather than values[]
+    static final Object NUMBER = new Object();
+
+    private final String src;
+    private final String dest;
+    private final String type;
+    private final int msgId;
+    private final int inReplyTo;
+
+    // Body fields in arrival order; values[i] is NUMBER, a String, an int[] or a JsonNode
+    private final String[] names;
+    private final Object[] values;
+    private final long[] numbers;
+    private final int fieldCount;
+
+    // The body as a tree, only built if a handler asks for it
+    private volatile JsonNode body;
+
+    Message(String src, String dest, String type, int msgId, JsonNode body) {
+        this.src = src;
+        this.dest = dest;
+        this.type = type;
+        this.msgId = msgId;
+        this.inReplyTo = body.path("in_reply_to").asInt(-1);
+        this.names = new String[0];
+        this.values = new Object[0];
+        this.numbers = new long[0];
+        this.fieldCount = 0;
+        this.body = body;
+    }
+
+    Message(String src, String dest, String type, int msgId, int inReplyTo,
+            String[] names, Object[] values, long[] numbers, int fieldCount) {
+        this.src = src;
+        this.dest = dest;
+        this.type = type;
+        this.msgId = msgId;
+        this.inReplyTo = inReplyTo;
+        this.names = names;
+        this.values = values;
+        this.numbers = numbers;
+        this.fieldCount = fieldCount;
+    }
+
+    String src() {
+        return src;
+    }
+
+    String dest() {
+        return dest;
+    }
+
+    String type() {
+        return type;
+    }
+
+    /**
+     * Returns the msg_id of this message, or -1 if it has none.
+     */
+    int msgId() {
+        return msgId;
+    }
+
+    /**
+     * Returns the in_reply_to of this message, or -1 if it has none.
+     */
+    int inReplyTo() {
+        return inReplyTo;
+    }
+
+    /**
+     * Returns a numeric body field as an int, or 0 if it is missing.
+     */
+    int getInt(String name) {
+        return (int) getLong(name);
+    }
+
+    /**
+     * Returns a numeric body field as a long, or 0 if it is missing.
+     */
+    long getLong(String name) {
+        int index = indexOf(name);
+        if (index >= 0 && values[index] == NUMBER) {
+            return numbers[index];
+        }
+        return get(name).asLong();
+    }
+
+    /**
+     * Returns a body field as a String, or null if it is missing.
+     */
+    String getString(String name) {
+        Object value = valueOf(name);
+        if (value instanceof String text) {
+            return text;
+        }
+        JsonNode node = get(name);
+        return node.isMissingNode() ? null : node.asText();
+    }
+
+    /**
+     * Returns a body field that holds an array of ints, or an empty array if it is missing.
+     */
+    int[] getIntArray(String name) {
+        Object value = valueOf(name);
+        if (value instanceof int[] ints) {
+            return ints;
+        }
+        JsonNode node = get(name);
+        int[] ints = new int[node.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = node.get(i).asInt();
+        }
+        return ints;
+    }
+
+    /**
+     * Returns one body field as a tree, or a MissingNode if it is absent.
+     */
+    JsonNode get(String name) {
+        if (body != null) {
+            return body.path(name);
+        }
+        int index = indexOf(name);
+        return index >= 0 ? toNode(index) : NODES.missingNode();
+    }
+
+    /**
+     * Returns the whole body as a tree.
+     */
+    JsonNode body() {
+        JsonNode tree = body;
+        if (tree == null) {
+            ObjectNode object = NODES.objectNode();
+            for (int i = 0; i < fieldCount; i++) {
+                object.set(names[i], toNode(i));
+            }
+            body = tree = object;
+        }
+        return tree;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < fieldCount; i++) {
+            // Field names are canonicalized by the decoder, so this is usually an identity hit
+            if (names[i] == name || names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object valueOf(String name) {
+        int index = indexOf(name);
+        return index >= 0 ? values[index] : null;
+    }
+
+    private JsonNode toNode(int index) {
+        Object value = values[index];
+        if (value == NUMBER) {
+            long number = numbers[index];
+            return number == (int) number ? NODES.numberNode((int) number) : NODES.numberNode(number);
+        } else if (value instanceof String text) {
+            return NODES.textNode(text);
+        } else if (value instanceof int[] ints) {
+            ArrayNode array = NODES.arrayNode(ints.length);
+            for (int v : ints) {
+                array.add(v);
+            }
+            return array;
+        }
+        return (JsonNode) value;
+    }
+
+    @Override
+    public String toString() {
+        return src + " -> " + dest + " " + body();
+    }
+}
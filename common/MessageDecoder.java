@@ -0,0 +1,191 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * MessageDecoder - Single-pass streaming decoder for Maelstrom envelopes
+ *
+ * mapper.readTree() builds a JsonNode for every field of every message, even
+ * though most handlers only need src, dest, body.type, msg_id and one or two
+ * numbers. This decoder walks the tokens once with a JsonParser and keeps:
+ * - src, dest and type as Strings, reused from a small cache since the same
+ *   few node ids and type names come back over and over
+ * - numbers and strings as plain values
+ * - arrays of ints (gossip batches, read results...) as an int[]
+ * Only the remaining nested values (the topology map, node_ids...) are read
+ * as trees.
+ *
+ * A decoder is not thread-safe; each node's read loop owns one.
+ */
+class MessageDecoder {
+    private final ObjectMapper mapper;
+    private final JsonFactory factory;
+
+    // Direct-mapped cache of short strings seen in envelopes (node ids, types)
+    private final String[] stringCache = new String[256];
+
+    // Scratch space for the body being decoded, reused across messages
+    private String type;
+    private int msgId;
+    private int inReplyTo;
+    private String[] names = new String[8];
+    private Object[] values = new Object[8];
+    private long[] numbers = new long[8];
+    private int count;
+
+    MessageDecoder(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.factory = mapper.getFactory();
+    }
+
+    Message decode(byte[] buffer, int offset, int length) throws IOException {
+        try (JsonParser parser = factory.createParser(buffer, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+
+            String src = null;
+            String dest = null;
+            boolean hasBody = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "src" -> src = cachedText(parser);
+                    case "dest" -> dest = cachedText(parser);
+                    case "body" -> {
+                        decodeBody(parser);
+                        hasBody = true;
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (!hasBody) {
+                throw new IOException("Message has no body");
+            }
+            return new Message(src, dest, type, msgId, inReplyTo,
+                    Arrays.copyOf(names, count), Arrays.copyOf(values, count), Arrays.copyOf(numbers, count), count);
+        } finally {
+            // Drop references to the previous message's values
+            Arrays.fill(values, 0, count, null);
+        }
+    }
+
+    private void decodeBody(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected body to be a JSON object");
+        }
+
+        type = null;
+        msgId = -1;
+        inReplyTo = -1;
+        count = 0;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            if (count == names.length) {
+                names = Arrays.copyOf(names, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+                numbers = Arrays.copyOf(numbers, count * 2);
+            }
+            String name = parser.currentName();
+            token = parser.nextToken();
+            names[count] = name;
+
+            if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                long number = parser.getLongValue();
+                values[count] = Message.NUMBER;
+                numbers[count] = number;
+                if (name.equals("msg_id")) {
+                    msgId = (int) number;
+                } else if (name.equals("in_reply_to")) {
+                    inReplyTo = (int) number;
+                }
+            } else if (token == JsonToken.VALUE_STRING) {
+                boolean isType = name.equals("type");
+                String text = isType ? cachedText(parser) : parser.getText();
+                values[count] = text;
+                if (isType) {
+                    type = text;
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                values[count] = readArray(parser);
+            } else {
+                values[count] = mapper.readTree(parser);
+            }
+            count++;
+        }
+        if (type == null) {
+            throw new IOException("Message body has no type");
+        }
+    }
+
+    /**
+     * Reads an array as an int[] if it only holds ints, or as an ArrayNode otherwise.
+     * The parser must be positioned on START_ARRAY.
+     */
+    private Object readArray(JsonParser parser) throws IOException {
+        int[] ints = new int[16];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.VALUE_NUMBER_INT
+                && parser.getNumberType() == JsonParser.NumberType.INT) {
+            if (size == ints.length) {
+                ints = Arrays.copyOf(ints, size * 2);
+            }
+            ints[size++] = parser.getIntValue();
+        }
+        if (token == JsonToken.END_ARRAY) {
+            return Arrays.copyOf(ints, size);
+        }
+
+        // Not an int array after all: keep what we have and read the rest as a tree
+        ArrayNode array = mapper.createArrayNode();
+        for (int i = 0; i < size; i++) {
+            array.add(ints[i]);
+        }
+        do {
+            JsonNode element = mapper.readTree(parser);
+            array.add(element);
+        } while (parser.nextToken() != JsonToken.END_ARRAY);
+        return array;
+    }
+
+    /**
+     * Returns the current string token, reusing a previously returned String
+     * with the same characters when there is one.
+     */
+    private String cachedText(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (length > 32) {
+            return parser.getText();
+        }
+
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (stringCache.length - 1);
+        String cached = stringCache[slot];
+        if (cached != null && cached.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = cached.charAt(i) == chars[offset + i];
+            }
+            if (same) {
+                return cached;
+            }
+        }
+        String text = new String(chars, offset, length);
+        stringCache[slot] = text;
+        return text;
+    }
+}
@@ -0,0 +1,182 @@
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * MessageEncoder - Garbage-free encoder for outbound Maelstrom messages
+ *
+ * Building an ObjectNode envelope and body and then calling
+ * writeValueAsString() allocates a handful of objects plus a String and a
+ * byte[] for every broadcast_ok, read_ok or generate_ok. This encoder instead:
+ * 1. Keeps one JsonGenerator for its whole lifetime, writing into a byte
+ *    buffer that is reset (not reallocated) after every message
+ * 2. Caches the envelope prefix {"src":"n1","dest":"c1","body": as bytes for
+ *    each destination, so only the body goes through the generator
+ * 3. Lets callers write body fields straight into the generator through a
+ *    {@link BodyWriter} instead of building a tree first
+ *
+ * An encoder is not thread-safe.
+ */
+class MessageEncoder {
+    /**
+     * Writes the fields of a message body, after "type" and before the closing brace.
+     */
+    @FunctionalInterface
+    interface BodyWriter {
+        void write(JsonGenerator body) throws IOException;
+    }
+
+    // Upper bound on cached prefixes, in case a workload uses very many clients
+    private static final int MAX_CACHED_PREFIXES = 1024;
+
+    private final ObjectMapper mapper;
+    private final Buffer buffer = new Buffer();
+    private JsonGenerator generator;
+
+    private final Map<String, byte[]> prefixes = new HashMap<>();
+    private String prefixSrc;
+
+    MessageEncoder(ObjectMapper mapper) throws IOException {
+        this.mapper = mapper;
+        this.generator = createGenerator();
+    }
+
+    /**
+     * Encodes a message whose body is {"type": type, [msg_id], [in_reply_to], ...fields}.
+     * Pass -1 for msgId or inReplyTo to leave them out, and null for fields
+     * when the body has nothing else.
+     */
+    void encode(String src, String dest, String type, int msgId, int inReplyTo, BodyWriter fields) throws IOException {
+        int start = buffer.size;
+        try {
+            buffer.write(prefix(src, dest));
+            generator.writeStartObject();
+            generator.writeStringField("type", type);
+            if (msgId >= 0) {
+                generator.writeNumberField("msg_id", msgId);
+            }
+            if (inReplyTo >= 0) {
+                generator.writeNumberField("in_reply_to", inReplyTo);
+            }
+            if (fields != null) {
+                fields.write(generator);
+            }
+            generator.writeEndObject();
+            finish();
+        } catch (IOException | RuntimeException e) {
+            discard(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes a message whose body was built as a tree.
+     */
+    void encode(String src, String dest, ObjectNode body) throws IOException {
+        int start = buffer.size;
+        try {
+            buffer.write(prefix(src, dest));
+            mapper.writeTree(generator, body);
+            finish();
+        } catch (IOException | RuntimeException e) {
+            discard(start);
+            throw e;
+        }
+    }
+
+    byte[] array() {
+        return buffer.bytes;
+    }
+
+    int size() {
+        return buffer.size;
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity for the next messages.
+     */
+    void reset() {
+        buffer.size = 0;
+    }
+
+    private JsonGenerator createGenerator() throws IOException {
+        JsonGenerator created = mapper.getFactory().createGenerator(buffer);
+        // Every message is a new root value; don't separate them with a space
+        created.setRootValueSeparator(null);
+        return created;
+    }
+
+    /**
+     * Drops a half-written message. The generator may be stuck inside an
+     * object, so it is replaced too.
+     */
+    private void discard(int start) throws IOException {
+        buffer.size = start;
+        generator = createGenerator();
+    }
+
+    private void finish() throws IOException {
+        // Move the generator's own buffer into ours before closing the envelope
+        generator.flush();
+        buffer.write('}');
+        buffer.write('\n');
+    }
+
+    /**
+     * Returns the bytes of {"src":src,"dest":dest,"body": for this pair.
+     */
+    private byte[] prefix(String src, String dest) throws IOException {
+        if (!Objects.equals(src, prefixSrc)) {
+            // Our node id is only known after init
+            prefixes.clear();
+            prefixSrc = src;
+        }
+        byte[] prefix = prefixes.get(dest);
+        if (prefix == null) {
+            if (prefixes.size() >= MAX_CACHED_PREFIXES) {
+                prefixes.clear();
+            }
+            String text = "{\"src\":" + mapper.writeValueAsString(src)
+                    + ",\"dest\":" + mapper.writeValueAsString(dest)
+                    + ",\"body\":";
+            prefix = text.getBytes(StandardCharsets.UTF_8);
+            prefixes.put(dest, prefix);
+        }
+        return prefix;
+    }
+
+    /**
+     * Growable byte buffer that keeps its array across messages.
+     */
+    private static final class Buffer extends OutputStream {
+        private byte[] bytes = new byte[8 * 1024];
+        private int size = 0;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
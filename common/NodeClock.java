@@ -0,0 +1,62 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NodeClock - Where a node gets the time and runs its timers
+ *
+ * Nodes that read System.currentTimeMillis() and own their scheduler threads
+ * can only run in real time, so no two runs are alike. Going through a clock
+ * lets a simulator substitute virtual time (see {@link VirtualClock}) and run
+ * every node, timer and message on a single thread, in a reproducible order.
+ *
+ * Timers are named: tasks scheduled on the same timer never run concurrently,
+ * so state touched only by one timer's tasks needs no locking.
+ */
+interface NodeClock {
+    /**
+     * Wall-clock time in ms, for timestamps and timeouts.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Monotonic time in ns, for measuring durations.
+     */
+    long nanoTime();
+
+    /**
+     * Runs {@code task} once after {@code delay}, on the timer {@code timer}.
+     */
+    void schedule(String timer, Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Real time, with one daemon thread per timer, named after it and started
+     * on first use. Each call returns a clock with its own threads.
+     */
+    static NodeClock system() {
+        return new NodeClock() {
+            private final Map<String, ScheduledExecutorService> timers = new ConcurrentHashMap<>();
+
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void schedule(String timer, Runnable task, long delay, TimeUnit unit) {
+                timers.computeIfAbsent(timer, name -> Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                })).schedule(task, delay, unit);
+            }
+        };
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundWriter - Dedicated writer thread for STDOUT
+ *
+ * With a gossip thread and the handler thread both calling println, every
+ * message takes the PrintStream lock and flushes on its own. This class
+ * moves all writes to STDOUT onto one thread:
+ * 1. Producers (handlers, gossip...) append already-encoded bytes to a
+ *    pending buffer under a short lock; they never touch STDOUT
+ * 2. The writer thread swaps the pending buffer with its own, then writes
+ *    everything that piled up in one write() and one flush()
+ * 3. The pending buffer is bounded: when it is full, producers wait for the
+ *    writer (backpressure) and the wait is recorded in the metrics
+ *
+ * The two buffers are swapped rather than reallocated, so the steady state
+ * produces no garbage, whatever the number of messages per batch.
+ */
+class OutboundWriter implements MaelstromNode.Transport, AutoCloseable {
+    private final OutputStream out;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Guarded by lock: bytes waiting for the writer thread
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingSize = 0;
+    private int pendingMessages = 0;
+    private boolean closed = false;
+
+    // Owned by the writer thread: the batch being written
+    private byte[] writing = new byte[64 * 1024];
+
+    private final Thread thread;
+
+    // Metrics, guarded by lock
+    private long messages = 0;
+    private long bytes = 0;
+    private long batches = 0;
+    private int largestBatch = 0;
+    private int highWaterBytes = 0;
+    private long stalls = 0;
+    private long stallNanos = 0;
+
+    /**
+     * @param capacity Maximum number of pending bytes before producers have to wait
+     */
+    OutboundWriter(OutputStream out, int capacity) {
+        this.out = out;
+        this.capacity = capacity;
+        this.thread = new Thread(this::runWriter, "outbound-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues one or more complete, newline-terminated messages.
+     * Blocks only if the writer has fallen {@code capacity} bytes behind.
+     */
+    @Override
+    public void write(byte[] data, int offset, int length, int messageCount) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Outbound writer is closed");
+            }
+            // A message larger than the whole capacity still goes through once the buffer is empty
+            if (pendingSize > 0 && pendingSize + length > capacity) {
+                stalls++;
+                long start = System.nanoTime();
+                while (pendingSize > 0 && pendingSize + length > capacity && !closed) {
+                    notFull.awaitUninterruptibly();
+                }
+                stallNanos += System.nanoTime() - start;
+            }
+            if (pendingSize + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + length));
+            }
+            System.arraycopy(data, offset, pending, pendingSize, length);
+            pendingSize += length;
+            pendingMessages += messageCount;
+            highWaterBytes = Math.max(highWaterBytes, pendingSize);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out everything still pending and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns a one-line summary of the writer's throughput and backpressure.
+     */
+    @Override
+    public String stats() {
+        lock.lock();
+        try {
+            return String.format(
+                    "outbound: %d messages, %d bytes in %d batches (largest %d bytes, avg %.1f msgs), "
+                            + "high water %d/%d bytes, %d producer stalls (%.1f ms)",
+                    messages, bytes, batches, largestBatch,
+                    batches == 0 ? 0.0 : (double) messages / batches,
+                    highWaterBytes, capacity, stalls, stallNanos / 1e6);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            int size;
+            lock.lock();
+            try {
+                while (pendingSize == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pendingSize == 0) {
+                    return; // closed and drained
+                }
+                // Swap buffers: producers keep appending while we write this batch
+                byte[] batch = pending;
+                pending = writing;
+                writing = batch;
+                size = pendingSize;
+
+                messages += pendingMessages;
+                bytes += size;
+                batches++;
+                largestBatch = Math.max(largestBatch, size);
+                pendingSize = 0;
+                pendingMessages = 0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                out.write(writing, 0, size);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Error writing to STDOUT: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * PackedInts - Compact encoding for sets of ints sent between our own nodes
+ *
+ * A JSON array spends up to 11 bytes per int, plus a comma, and every value
+ * goes through the number parser on the other side. Broadcast values are
+ * mostly small and dense, so sorting them and storing the gaps between
+ * neighbours as varints usually brings them down to one byte each. The bytes
+ * travel as a base64 string (JsonGenerator.writeBinaryField), so the message is
+ * still valid JSON for Maelstrom.
+ *
+ * Layout: varint count, zigzag varint of the first value, then one varint per
+ * gap to the previous value. Order is not preserved, duplicates are.
+ */
+final class PackedInts {
+    private PackedInts() {
+    }
+
+    /**
+     * Encodes the first {@code count} values. Sorts them in place.
+     */
+    static byte[] encode(int[] values, int count) {
+        Arrays.sort(values, 0, count);
+        // Worst case 5 bytes per value, plus the count
+        byte[] out = new byte[5 * count + 5];
+        int pos = writeVarint(out, 0, count);
+        if (count > 0) {
+            int first = values[0];
+            pos = writeVarint(out, pos, (first << 1) ^ (first >> 31));
+            for (int i = 1; i < count; i++) {
+                // Sorted, so the gap is non-negative; it can still exceed Integer.MAX_VALUE
+                pos = writeVarint(out, pos, values[i] - values[i - 1]);
+            }
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    static int[] decode(String base64) {
+        return decode(Base64.getDecoder().decode(base64));
+    }
+
+    static int[] decode(byte[] packed) {
+        int[] pos = {0};
+        int count = readVarint(packed, pos);
+        int[] values = new int[count];
+        if (count > 0) {
+            int zigzag = readVarint(packed, pos);
+            values[0] = (zigzag >>> 1) ^ -(zigzag & 1);
+            for (int i = 1; i < count; i++) {
+                values[i] = values[i - 1] + readVarint(packed, pos);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes {@code value} as an unsigned varint: 7 bits per byte, low bits
+     * first, high bit set on every byte but the last.
+     */
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= in.length) {
+                throw new IllegalArgumentException("Truncated packed ints");
+            }
+            byte b = in[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in packed ints");
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Random;
+
+/**
+ * RttEstimator - Round-trip time and retry timeout for one peer
+ *
+ * Follows TCP's retransmission timer (RFC 6298): a smoothed RTT and its mean
+ * deviation are updated from every request/reply pair, and the timeout is
+ * SRTT + 4 * RTTVAR, clamped to [minRto, maxRto]. A fast peer is retried
+ * quickly, a slow one is not retried before its replies could have arrived.
+ *
+ * Each timeout without a reply doubles the next timeout (exponential backoff)
+ * and adds jitter, so a peer on the other side of a partition is probed less
+ * and less often, and peers don't all retry in lockstep. The first reply
+ * resets the backoff.
+ *
+ * Thread-safe.
+ */
+class RttEstimator {
+    // Backoff stops doubling after this many consecutive timeouts
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final long minRto;
+    private final long maxRto;
+    private final Random random;
+
+    private double srtt = -1;  // no sample yet
+    private double rttvar = 0;
+    private long rto;
+    private int failures = 0;
+
+    /**
+     * @param initialRto Timeout before the first sample, in ms
+     * @param minRto     Lower bound for the timeout, in ms
+     * @param maxRto     Upper bound for the timeout, backoff included, in ms
+     */
+    RttEstimator(long initialRto, long minRto, long maxRto, Random random) {
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.random = random;
+        this.rto = initialRto;
+    }
+
+    /**
+     * Records the round trip of a request that got its reply. Only sample
+     * requests that were sent once, or whose retries have their own msg_id,
+     * so the reply can't belong to an earlier copy.
+     */
+    synchronized void sample(long rttMs) {
+        if (srtt < 0) {
+            srtt = rttMs;
+            rttvar = rttMs / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rttMs);
+            srtt = 0.875 * srtt + 0.125 * rttMs;
+        }
+        rto = Math.max(minRto, Math.min(maxRto, (long) Math.ceil(srtt + 4 * rttvar)));
+        failures = 0;
+    }
+
+    /**
+     * Records a request that timed out.
+     */
+    synchronized void timedOut() {
+        failures++;
+    }
+
+    /**
+     * How long to wait for the reply to a request sent now, in ms.
+     */
+    synchronized long timeout() {
+        if (failures == 0) {
+            return rto;
+        }
+        long backedOff = Math.min(maxRto, rto << Math.min(failures, MAX_BACKOFF_SHIFT));
+        // Somewhere in the upper half, so retries to many peers spread out
+        return backedOff / 2 + (long) (random.nextDouble() * (backedOff / 2 + 1));
+    }
+
+    /**
+     * Consecutive timeouts since the last reply.
+     */
+    synchronized int failures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return srtt < 0
+            ? "rtt=? rto=" + rto + "ms failures=" + failures
+            : String.format("srtt=%.1fms rttvar=%.1fms rto=%dms failures=%d", srtt, rttvar, rto, failures);
+    }
+}
@@ -0,0 +1,514 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SimulatedNetwork - Maelstrom's network, inside one JVM
+ *
+ * Maelstrom runs every node as its own process and relays the JSON lines they
+ * print. This class plays the same role for nodes living in this process:
+ * 1. Each node is a regular {@link MaelstromNode} whose STDOUT is a port of
+ *    the network and whose STDIN is an inbox fed by the network, so the
+ *    solutions run unchanged, encoder and decoder included
+ * 2. Every line a node writes is routed by its "dest", after a delay drawn
+ *    from the latency distribution
+ * 3. Messages between two nodes can be lost at random, or dropped because the
+ *    nodes are on different sides of a partition. Clients always reach the
+ *    nodes, as in Maelstrom.
+ *
+ * Any destination that is not a node is a client. Client-bound messages are
+ * decoded on one "clients" thread and handed to the client handler.
+ *
+ * Built with a {@link VirtualClock}, the network runs deterministically
+ * instead: there are no threads, every node uses the virtual clock and a
+ * random source seeded from the network's seed, and every delivery (to a
+ * node's {@link MaelstromNode#receive} or to the client handler) is an event
+ * on that clock. Whoever runs the clock's events runs the whole cluster.
+ */
+class SimulatedNetwork implements AutoCloseable {
+    /**
+     * How message delays are drawn around the configured latency, named after
+     * Maelstrom's --latency-dist.
+     */
+    enum LatencyDistribution {
+        CONSTANT,
+        /** Uniform between 0 and twice the latency */
+        UNIFORM,
+        /** Exponential with the latency as its mean */
+        EXPONENTIAL
+    }
+
+    private record SimulatedNode(MaelstromNode node, Inbox inbox, Thread thread) {
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = mapper.getFactory();
+    private final Random random;
+
+    // Set when the network runs deterministically, in virtual time
+    private final VirtualClock virtualClock;
+
+    // Delivers delayed messages on its "network-delivery" timer; delivery
+    // only enqueues (or, in virtual time, handles), so one timer keeps up
+    private final NodeClock delivery;
+
+    private final Map<String, SimulatedNode> nodes = new ConcurrentHashMap<>();
+    private final Inbox clientInbox = new Inbox();
+    private volatile MaelstromNode.Handler clientHandler = message -> { };
+
+    // Client requests are encoded here, guarded by itself
+    private final MessageEncoder clientEncoder;
+
+    // Decodes client-bound messages in virtual time; the clients thread has its own
+    private final MessageDecoder clientDecoder = new MessageDecoder(mapper);
+
+    private volatile double latencyMs = 0;
+    private volatile LatencyDistribution latencyDistribution = LatencyDistribution.CONSTANT;
+    private volatile double lossRate = 0;
+    private volatile boolean nodeDebug = true;
+
+    // Side of every node while partitioned, empty when the network is whole
+    private volatile Map<String, Integer> sides = Map.of();
+
+    private final AtomicLong nodeMessages = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong partitioned = new AtomicLong();
+    private final AtomicLong clientMessages = new AtomicLong();
+
+    /**
+     * A network in real time, each node with its own threads.
+     */
+    SimulatedNetwork(long seed) throws IOException {
+        this(seed, null);
+    }
+
+    /**
+     * A network in the virtual time of {@code clock}, or in real time if null.
+     */
+    SimulatedNetwork(long seed, VirtualClock clock) throws IOException {
+        this.random = new Random(seed);
+        this.virtualClock = clock;
+        this.delivery = clock != null ? clock : NodeClock.system();
+        this.clientEncoder = new MessageEncoder(mapper);
+        if (clock == null) {
+            Thread clientThread = new Thread(this::runClients, "clients");
+            clientThread.setDaemon(true);
+            clientThread.start();
+        }
+    }
+
+    /**
+     * Average one-way delay of every message, in ms.
+     */
+    void latency(double latencyMs, LatencyDistribution distribution) {
+        this.latencyMs = latencyMs;
+        this.latencyDistribution = distribution;
+    }
+
+    /**
+     * Probability that a message between two nodes is silently dropped.
+     */
+    void loss(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * Splits the nodes into sides that can't reach each other. Nodes not
+     * listed end up together on one more side.
+     */
+    void partition(List<? extends Collection<String>> components) {
+        Map<String, Integer> split = new HashMap<>();
+        for (int i = 0; i < components.size(); i++) {
+            for (String id : components.get(i)) {
+                split.put(id, i);
+            }
+        }
+        sides = split;
+    }
+
+    void heal() {
+        sides = Map.of();
+    }
+
+    boolean isPartitioned() {
+        return !sides.isEmpty();
+    }
+
+    /**
+     * Whether nodes added from now on print their debug output to STDERR.
+     * Each silenced node gets its own null sink, so they don't contend on one stream.
+     */
+    void nodeDebug(boolean enabled) {
+        this.nodeDebug = enabled;
+    }
+
+    /**
+     * Sets the handler for every message sent to a client. It runs on the
+     * "clients" thread (or the virtual clock's), one message at a time.
+     */
+    void onClientMessage(MaelstromNode.Handler handler) {
+        this.clientHandler = handler;
+    }
+
+    /**
+     * Creates a node attached to the network. Register its handlers, then
+     * call {@link #start()}; like a Maelstrom node, it learns its id from init.
+     */
+    MaelstromNode addNode(String id) {
+        Random nodeRandom = new Random(random.nextLong());
+        if (virtualClock != null) {
+            MaelstromNode node = new MaelstromNode(new DirectTransport(), virtualClock, nodeRandom);
+            silenceUnlessDebug(node);
+            nodes.put(id, new SimulatedNode(node, null, null));
+            return node;
+        }
+        Inbox inbox = new Inbox();
+        MaelstromNode node = new MaelstromNode(new Port(), NodeClock.system(), nodeRandom);
+        silenceUnlessDebug(node);
+        Thread thread = new Thread(() -> runNode(id, node, inbox), "node-" + id);
+        thread.setDaemon(true);
+        nodes.put(id, new SimulatedNode(node, inbox, thread));
+        return node;
+    }
+
+    /**
+     * Starts the read loop of every node added so far. Nodes in virtual
+     * time have none: they handle messages as the clock delivers them.
+     */
+    void start() {
+        for (SimulatedNode node : nodes.values()) {
+            if (node.thread() != null && node.thread().getState() == Thread.State.NEW) {
+                node.thread().start();
+            }
+        }
+    }
+
+    /**
+     * Sends a message from a client to a node.
+     */
+    void send(String src, String dest, String type, int msgId, MessageEncoder.BodyWriter fields) throws IOException {
+        byte[] line;
+        synchronized (clientEncoder) {
+            try {
+                clientEncoder.encode(src, dest, type, msgId, -1, fields);
+                line = Arrays.copyOf(clientEncoder.array(), clientEncoder.size());
+            } finally {
+                clientEncoder.reset();
+            }
+        }
+        route(line);
+    }
+
+    long nodeMessages() {
+        return nodeMessages.get();
+    }
+
+    long clientMessages() {
+        return clientMessages.get();
+    }
+
+    /**
+     * Returns a one-line summary of the traffic so far.
+     */
+    String stats() {
+        return String.format("network: %d node-to-node messages (%d lost, %d dropped by partitions), %d client-bound messages",
+                nodeMessages.get(), lost.get(), partitioned.get(), clientMessages.get());
+    }
+
+    /**
+     * Closes every node's STDIN, so each one drains, waits for its handlers
+     * and stops, as when Maelstrom ends a test. In virtual time there is
+     * nothing to stop: the cluster only runs while its clock does.
+     * If interrupted, stops waiting for the nodes and keeps the interrupt.
+     */
+    @Override
+    public void close() {
+        if (virtualClock != null) {
+            return;
+        }
+        for (SimulatedNode node : nodes.values()) {
+            node.inbox().close();
+        }
+        try {
+            for (SimulatedNode node : nodes.values()) {
+                node.thread().join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clientInbox.close();
+        }
+    }
+
+    private void silenceUnlessDebug(MaelstromNode node) {
+        if (!nodeDebug) {
+            node.debugTo(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    private void runNode(String id, MaelstromNode node, Inbox inbox) {
+        try {
+            node.run(inbox);
+        } catch (IOException e) {
+            System.err.println("Node " + id + " stopped: " + e.getMessage());
+        }
+    }
+
+    private void runClients() {
+        MessageDecoder decoder = new MessageDecoder(mapper);
+        LineReader reader = new LineReader(clientInbox);
+        try {
+            while (reader.next()) {
+                if (reader.lineLength() == 0) {
+                    continue;
+                }
+                try {
+                    clientHandler.handle(decoder.decode(reader.buffer(), reader.lineStart(), reader.lineLength()));
+                } catch (Exception e) {
+                    System.err.println("Error processing client message: " + e.getMessage() + "\nInput was: " + reader.lineAsString());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Client inbox failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forwards one newline-terminated message to its destination.
+     */
+    private void route(byte[] line) throws IOException {
+        String src = null;
+        String dest = null;
+        try (JsonParser parser = factory.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            // Only the envelope is read; the body is skipped unparsed
+            while ((src == null || dest == null) && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "src" -> src = parser.getText();
+                    case "dest" -> dest = parser.getText();
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        if (dest == null) {
+            throw new IOException("Message has no dest: " + new String(line).trim());
+        }
+
+        SimulatedNode target = nodes.get(dest);
+        if (target == null) {
+            clientMessages.incrementAndGet();
+        } else {
+            if (src != null && nodes.containsKey(src)) {
+                nodeMessages.incrementAndGet();
+                Map<String, Integer> split = sides;
+                if (!split.isEmpty() && !split.getOrDefault(src, -1).equals(split.getOrDefault(dest, -1))) {
+                    partitioned.incrementAndGet();
+                    return;
+                }
+                if (lossRate > 0 && random.nextDouble() < lossRate) {
+                    lost.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        long delayNanos = delayNanos();
+        if (delayNanos == 0 && virtualClock == null) {
+            deliver(target, line);
+        } else {
+            // Always an event in virtual time, so a handler never runs inside another's send
+            delivery.schedule("network-delivery", () -> deliver(target, line), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Hands a line to its node, or to the clients if {@code target} is null.
+     */
+    private void deliver(SimulatedNode target, byte[] line) {
+        if (virtualClock == null) {
+            (target != null ? target.inbox() : clientInbox).deliver(line);
+        } else if (target != null) {
+            target.node().receive(line, 0, line.length - 1);
+        } else {
+            try {
+                clientHandler.handle(clientDecoder.decode(line, 0, line.length - 1));
+            } catch (Exception e) {
+                System.err.println("Error processing client message: " + e.getMessage() + "\nInput was: " + new String(line).trim());
+            }
+        }
+    }
+
+    private long delayNanos() {
+        double mean = latencyMs;
+        if (mean <= 0) {
+            return 0;
+        }
+        double delayMs = switch (latencyDistribution) {
+            case CONSTANT -> mean;
+            case UNIFORM -> random.nextDouble() * 2 * mean;
+            case EXPONENTIAL -> -mean * Math.log(1 - random.nextDouble());
+        };
+        return (long) (delayMs * 1_000_000);
+    }
+
+    /**
+     * A node's STDOUT: cuts what the node's writer flushes into lines and
+     * routes each of them.
+     */
+    private final class Port extends OutputStream {
+        // Start of a line whose newline has not been written yet
+        private byte[] partial = new byte[0];
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            int start = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (data[i] != '\n') {
+                    continue;
+                }
+                byte[] line;
+                if (partial.length > 0) {
+                    line = Arrays.copyOf(partial, partial.length + i + 1 - start);
+                    System.arraycopy(data, start, line, partial.length, i + 1 - start);
+                    partial = new byte[0];
+                } else {
+                    line = Arrays.copyOfRange(data, start, i + 1);
+                }
+                try {
+                    route(line);
+                } catch (IOException e) {
+                    // A bad line must not stop the node's writer
+                    System.err.println("Dropped unroutable message: " + e.getMessage());
+                }
+                start = i + 1;
+            }
+            if (start < end) {
+                byte[] rest = Arrays.copyOf(partial, partial.length + end - start);
+                System.arraycopy(data, start, rest, partial.length, end - start);
+                partial = rest;
+            }
+        }
+    }
+
+    /**
+     * Sends what a node in virtual time writes straight to the network, on
+     * the calling thread, without an {@link OutboundWriter}.
+     */
+    private final class DirectTransport implements MaelstromNode.Transport {
+        private final Port port = new Port();
+        private long messages = 0;
+
+        @Override
+        public void write(byte[] data, int offset, int length, int messageCount) throws IOException {
+            messages += messageCount;
+            port.write(data, offset, length);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String stats() {
+            return "outbound: " + messages + " messages, handed to the network directly";
+        }
+    }
+
+    /**
+     * A node's STDIN: the lines the network delivered, in delivery order.
+     * Reads block until at least one line is there, then take whatever else
+     * is already queued, so the node sees bursts as bursts.
+     */
+    private static final class Inbox extends InputStream {
+        private static final byte[] EOF = new byte[0];
+
+        private final LinkedBlockingQueue<byte[]> lines = new LinkedBlockingQueue<>();
+        private volatile boolean closed = false;
+
+        // Owned by the reading thread
+        private byte[] current = EOF;
+        private int position = 0;
+        private boolean finished = false;
+
+        void deliver(byte[] line) {
+            if (!closed) {
+                lines.add(line);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            lines.add(EOF);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int read = 0;
+            while (read < length && !finished) {
+                if (position == current.length) {
+                    byte[] next = read == 0 ? take() : lines.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == EOF) {
+                        finished = true;
+                        break;
+                    }
+                    current = next;
+                    position = 0;
+                }
+                int chunk = Math.min(length - read, current.length - position);
+                System.arraycopy(current, position, buffer, offset + read, chunk);
+                position += chunk;
+                read += chunk;
+            }
+            return read == 0 && finished ? -1 : read;
+        }
+
+        private byte[] take() throws IOException {
+            try {
+                return lines.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a message");
+            }
+        }
+    }
+}
@@ -0,0 +1,504 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulation - Runs a Maelstrom workload against nodes in this process
+ *
+ * Going through bin/maelstrom means a JVM per node and a Clojure harness,
+ * which is slow to start and noisy to profile. A simulation wires the same
+ * node classes to a {@link SimulatedNetwork} instead:
+ * 1. Creates the nodes, lets the caller register its server on each, and
+ *    sends init like Maelstrom does
+ * 2. Has a pool of clients issue operations at a fixed total rate until the
+ *    time limit, each client waiting for its reply (or the timeout) before
+ *    starting its next operation
+ * 3. Reports throughput, latency percentiles and node-to-node messages per
+ *    operation, the figures Maelstrom's own analysis prints
+ *
+ * With --deterministic the nodes, the network, the clients and the nemesis
+ * all run on the calling thread, in the virtual time of a {@link VirtualClock},
+ * with every random choice drawn from --seed. The same seed then replays the
+ * same run, message for message, so latency and messages per operation can be
+ * compared exactly between two versions of a node. Latencies are virtual:
+ * they measure network delays and timers, not CPU time.
+ *
+ * Command-line options use Maelstrom's names where there is one:
+ *   --node-count 5 --time-limit 10 --rate 100 --concurrency 2n --timeout 1000
+ *   --latency 0 --latency-dist constant --loss 0 --nemesis partition
+ *   --nemesis-interval 5 --seed 1 --deterministic --log-stderr
+ * Node debug output goes to STDERR only with --log-stderr; errors always do.
+ */
+class Simulation implements AutoCloseable {
+    /**
+     * Registers a server's handlers on a freshly created node.
+     */
+    @FunctionalInterface
+    interface NodeSetup {
+        void setUp(MaelstromNode node) throws Exception;
+    }
+
+    /**
+     * Validates the reply to an operation; throwing marks the operation failed.
+     */
+    @FunctionalInterface
+    interface ReplyCheck {
+        void check(Message reply) throws Exception;
+    }
+
+    /**
+     * One client request: its body type, its other fields and how to check the reply.
+     */
+    record Operation(String type, MessageEncoder.BodyWriter fields, ReplyCheck check) {
+    }
+
+    /**
+     * Produces the operations clients issue. Called from many clients at once.
+     */
+    @FunctionalInterface
+    interface Workload {
+        Operation next(Random random);
+    }
+
+    /**
+     * What happened during {@link #run}. Latencies are in microseconds, sorted.
+     * Lagged operations are the slots the clients were too busy to take
+     * before the time limit; in-flight ones had no outcome yet when the run
+     * gave up waiting for them.
+     */
+    record Results(long operations, long ok, long failed, long timedOut, long lagged, long inFlight,
+                   long elapsedNanos, int[] latencies, long nodeMessages, List<String> errors) {
+
+        double seconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        double messagesPerOperation() {
+            return operations == 0 ? 0 : (double) nodeMessages / operations;
+        }
+
+        double latencyMs(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT,
+                    "operations: %d (%d ok, %d failed, %d timed out) in %.1f s, %.1f ok/s%n"
+                            + "latency ms: p50 %.2f, p95 %.2f, p99 %.2f, max %.2f%n"
+                            + "messages per operation: %.2f",
+                    operations, ok, failed, timedOut, seconds(), ok / seconds(),
+                    latencyMs(50), latencyMs(95), latencyMs(99), latencyMs(100),
+                    messagesPerOperation()));
+            if (lagged > 0 || inFlight > 0) {
+                text.append(System.lineSeparator()).append(String.format(Locale.ROOT,
+                        "clients lagged by %d ops, %d still in flight at the end", lagged, inFlight));
+            }
+            for (String error : errors) {
+                text.append(System.lineSeparator()).append("error: ").append(error);
+            }
+            return text.toString();
+        }
+    }
+
+    private static final String USAGE = "Options: --node-count N --time-limit SECONDS --rate OPS_PER_SECOND"
+            + " --concurrency N|Kn --timeout MS --latency MS --latency-dist constant|uniform|exponential"
+            + " --loss PROBABILITY --nemesis partition --nemesis-interval SECONDS --seed N --deterministic --log-stderr";
+
+    // Errors kept for the report, beyond which they are only counted
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final Map<String, String> options;
+    private final List<String> nodeIds = new ArrayList<>();
+    private final long timeLimitNanos;
+    private final double rate;
+    private final int concurrency;
+    private final long timeoutMs;
+    private final boolean partitionNemesis;
+    private final long nemesisIntervalMs;
+
+    private final Random random;
+    private final SimulatedNetwork network;
+
+    // Time for clients, timeouts and the nemesis; the virtual clock is also
+    // set in deterministic mode, and null otherwise
+    private final NodeClock clock;
+    private final VirtualClock virtualClock;
+
+    // Requests waiting for their reply, by msg_id; ids are unique across clients
+    private final Map<Integer, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextMsgId = new AtomicInteger();
+
+    private Simulation(Map<String, String> options) throws IOException {
+        this.options = options;
+        int nodeCount = Integer.parseInt(option("--node-count", "5"));
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds.add("n" + i);
+        }
+        this.timeLimitNanos = TimeUnit.MILLISECONDS.toNanos((long) (Double.parseDouble(option("--time-limit", "10")) * 1000));
+        this.rate = Double.parseDouble(option("--rate", "100"));
+        String clients = option("--concurrency", "2n");
+        this.concurrency = clients.endsWith("n")
+                ? Integer.parseInt(clients.substring(0, clients.length() - 1)) * nodeCount
+                : Integer.parseInt(clients);
+        this.timeoutMs = Long.parseLong(option("--timeout", "1000"));
+        String nemesis = option("--nemesis", "none");
+        if (!nemesis.equals("none") && !nemesis.equals("partition")) {
+            throw new IllegalArgumentException("Unsupported nemesis: " + nemesis);
+        }
+        this.partitionNemesis = nemesis.equals("partition");
+        this.nemesisIntervalMs = (long) (Double.parseDouble(option("--nemesis-interval", "5")) * 1000);
+
+        long seed = Long.parseLong(option("--seed", "1"));
+        this.random = new Random(seed);
+        this.virtualClock = option("--deterministic", null) != null ? new VirtualClock() : null;
+        this.clock = virtualClock != null ? virtualClock : NodeClock.system();
+        this.network = new SimulatedNetwork(seed, virtualClock);
+        network.latency(Double.parseDouble(option("--latency", "0")),
+                SimulatedNetwork.LatencyDistribution.valueOf(option("--latency-dist", "constant").toUpperCase(Locale.ROOT)));
+        network.loss(Double.parseDouble(option("--loss", "0")));
+        network.onClientMessage(this::handleClientMessage);
+        network.nodeDebug(option("--log-stderr", null) != null);
+    }
+
+    /**
+     * Parses {@code --name value} pairs; --deterministic and --log-stderr take no value.
+     * Options the launcher does not read are rejected by {@link #start}.
+     */
+    static Simulation fromArgs(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (!name.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + name + "\n" + USAGE);
+            }
+            if (name.equals("--deterministic") || name.equals("--log-stderr")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + name + "\n" + USAGE);
+            }
+        }
+        return new Simulation(options);
+    }
+
+    /**
+     * Reads (and consumes) an option, for launchers with options of their own.
+     */
+    String option(String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    List<String> nodeIds() {
+        return Collections.unmodifiableList(nodeIds);
+    }
+
+    SimulatedNetwork network() {
+        return network;
+    }
+
+    Random random() {
+        return random;
+    }
+
+    /**
+     * Creates and initializes the nodes, running {@code setup} on each one
+     * before it handles its first message.
+     */
+    void start(NodeSetup setup) throws Exception {
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet() + "\n" + USAGE);
+        }
+        for (String id : nodeIds) {
+            setup.setUp(network.addNode(id));
+        }
+        network.start();
+        for (String id : nodeIds) {
+            call(id, "init", body -> {
+                body.writeStringField("node_id", id);
+                body.writeArrayFieldStart("node_ids");
+                for (String other : nodeIds) {
+                    body.writeString(other);
+                }
+                body.writeEndArray();
+            });
+        }
+    }
+
+    /**
+     * Sends a request from client c0 and waits for its reply.
+     *
+     * @throws TimeoutException if no reply came within the timeout
+     */
+    Message call(String dest, String type, MessageEncoder.BodyWriter fields) throws Exception {
+        return await(request("c0", dest, type, fields), TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+    }
+
+    /**
+     * Runs the workload for the time limit, then heals any partition. If the
+     * clients still have operations in flight well after the time limit, as
+     * when the cluster can't keep up with the rate, the results are those of
+     * the operations completed so far.
+     */
+    Results run(Workload workload) throws Exception {
+        Run run = new Run(workload);
+        if (partitionNemesis) {
+            clock.schedule("nemesis", () -> togglePartition(run), nemesisIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        long messagesBefore = network.nodeMessages();
+        for (int c = 1; c <= concurrency; c++) {
+            String client = "c" + c;
+            IntList clientLatencies = new IntList();
+            run.latencies.add(clientLatencies);
+            run.next(client, clientLatencies);
+        }
+        // Every client stops at the time limit, after its last reply or timeout
+        try {
+            await(run.finished, timeLimitNanos + TimeUnit.MILLISECONDS.toNanos(2 * timeoutMs));
+        } catch (TimeoutException e) {
+            // Overloaded: report what completed rather than nothing
+        }
+        long elapsed = clock.nanoTime() - run.start;
+        network.heal();
+
+        IntList all = new IntList();
+        for (IntList clientLatencies : run.latencies) {
+            synchronized (clientLatencies) {
+                clientLatencies.forEach(all::add);
+            }
+        }
+        int[] sorted = all.toArray();
+        Arrays.sort(sorted);
+        long ok = run.ok.get();
+        long failed = run.failed.get();
+        long timedOut = run.timedOut.get();
+        long completed = ok + failed + timedOut;
+        return new Results(completed, ok, failed, timedOut, run.lagged(), Math.max(0, run.issued.get() - completed),
+                elapsed, sorted, network.nodeMessages() - messagesBefore, List.copyOf(run.errors));
+    }
+
+    /**
+     * Lets the cluster run for {@code ms}: sleeps, or advances virtual time.
+     */
+    void sleep(long ms) throws InterruptedException {
+        if (virtualClock != null) {
+            virtualClock.runUntil(virtualClock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms));
+        } else {
+            Thread.sleep(ms);
+        }
+    }
+
+    /**
+     * The simulation's time in ns, virtual in deterministic mode.
+     */
+    long nanoTime() {
+        return clock.nanoTime();
+    }
+
+    boolean isDeterministic() {
+        return virtualClock != null;
+    }
+
+    /**
+     * Stops every node, as when Maelstrom ends a test.
+     */
+    @Override
+    public void close() {
+        network.close();
+    }
+
+    private CompletableFuture<Message> request(String client, String dest, String type, MessageEncoder.BodyWriter fields)
+            throws IOException {
+        int msgId = nextMsgId.getAndUpdate(id -> id == Integer.MAX_VALUE ? 0 : id + 1);
+        CompletableFuture<Message> reply = new CompletableFuture<>();
+        pending.put(msgId, reply);
+        reply.whenComplete((message, error) -> pending.remove(msgId));
+        try {
+            network.send(client, dest, type, msgId, fields);
+        } catch (IOException e) {
+            pending.remove(msgId);
+            throw e;
+        }
+        return reply;
+    }
+
+    /**
+     * Waits for {@code future}: blocks, or in deterministic mode runs the
+     * simulation until it completes.
+     */
+    private <T> T await(CompletableFuture<T> future, long timeoutNanos) throws Exception {
+        try {
+            if (virtualClock == null) {
+                return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            virtualClock.runUntil(future::isDone, virtualClock.nanoTime() + timeoutNanos);
+            if (!future.isDone()) {
+                throw new TimeoutException();
+            }
+            return future.get();
+        } catch (TimeoutException e) {
+            // A late reply then finds nothing to complete
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private void handleClientMessage(Message message) {
+        CompletableFuture<Message> reply = pending.get(message.inReplyTo());
+        if (reply != null) {
+            reply.complete(message);
+        }
+    }
+
+    /**
+     * Alternates between a random split of the nodes into two halves and a
+     * healed network, until the run is over.
+     */
+    private void togglePartition(Run run) {
+        if (run.finished.isDone()) {
+            return;
+        }
+        if (network.isPartitioned()) {
+            network.heal();
+        } else {
+            List<String> shuffled = new ArrayList<>(nodeIds);
+            Collections.shuffle(shuffled, random);
+            int half = shuffled.size() / 2;
+            network.partition(List.of(shuffled.subList(0, half), shuffled.subList(half, shuffled.size())));
+        }
+        clock.schedule("nemesis", () -> togglePartition(run), nemesisIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One run of the workload. Clients are driven by callbacks rather than
+     * threads: a client issues its operation when its slot comes up on the
+     * "clients" timer, and takes the next slot once the reply or the timeout
+     * completes it. The same code thus runs in real and in virtual time.
+     */
+    private final class Run {
+        final Workload workload;
+        final long start = clock.nanoTime();
+        final long end = start + timeLimitNanos;
+        final long interval = (long) (1e9 / rate);
+        // Operation i may start at start + i * interval, whichever client takes it
+        final AtomicLong nextSlot = new AtomicLong(start);
+
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong timedOut = new AtomicLong();
+        final AtomicLong issued = new AtomicLong();
+        // Slots before the time limit that a stopping client gave back
+        final AtomicLong skipped = new AtomicLong();
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        final List<IntList> latencies = new ArrayList<>();
+
+        // Clients still issuing operations; completed when the last one stops
+        final AtomicInteger running = new AtomicInteger(concurrency);
+        final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        Run(Workload workload) {
+            this.workload = workload;
+        }
+
+        /**
+         * Schedules the client's next operation, or stops it at the time limit.
+         * A client behind the rate takes its backlogged slots right away, but
+         * never issues anything past the time limit.
+         */
+        void next(String client, IntList clientLatencies) {
+            long slot = nextSlot.getAndAdd(interval);
+            if (slot >= end || clock.nanoTime() >= end) {
+                if (slot < end) {
+                    skipped.incrementAndGet();
+                }
+                if (running.decrementAndGet() == 0) {
+                    finished.complete(null);
+                }
+                return;
+            }
+            clock.schedule("clients", () -> issue(client, clientLatencies), slot - clock.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Slots before the time limit that no client issued.
+         */
+        long lagged() {
+            if (interval == 0) {
+                // No rate to lag behind
+                return 0;
+            }
+            long untaken = Math.max(0, end - nextSlot.get());
+            return skipped.get() + (untaken + interval - 1) / interval;
+        }
+
+        private void issue(String client, IntList clientLatencies) {
+            String dest = nodeIds.get(random.nextInt(nodeIds.size()));
+            Operation operation = workload.next(random);
+            long sent = clock.nanoTime();
+            issued.incrementAndGet();
+            CompletableFuture<Message> reply;
+            try {
+                reply = request(client, dest, operation.type(), operation.fields());
+            } catch (IOException e) {
+                failed(operation, dest, e);
+                next(client, clientLatencies);
+                return;
+            }
+            clock.schedule("clients", () -> reply.completeExceptionally(new TimeoutException()), timeoutMs, TimeUnit.MILLISECONDS);
+            reply.whenComplete((message, error) -> {
+                if (error instanceof TimeoutException) {
+                    timedOut.incrementAndGet();
+                } else if (error != null) {
+                    failed(operation, dest, error);
+                } else {
+                    // Locked since an overloaded run may collect the latencies while clients still add
+                    synchronized (clientLatencies) {
+                        clientLatencies.add((int) Math.min(Integer.MAX_VALUE, (clock.nanoTime() - sent) / 1000));
+                    }
+                    try {
+                        if (message.type().equals("error")) {
+                            throw new IllegalStateException("error " + message.getInt("code") + ": " + message.getString("text"));
+                        }
+                        if (operation.check() != null) {
+                            operation.check().check(message);
+                        }
+                        ok.incrementAndGet();
+                    } catch (Exception e) {
+                        failed(operation, dest, e);
+                    }
+                }
+                next(client, clientLatencies);
+            });
+        }
+
+        private void failed(Operation operation, String dest, Throwable error) {
+            failed.incrementAndGet();
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(operation.type() + " to " + dest + ": " + error.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * VirtualClock - Simulated time, advanced one event at a time
+ *
+ * Every timer task, whatever its timer, goes into one queue ordered by due
+ * time, ties broken by scheduling order. Running the queue jumps the clock
+ * straight to the next due time and runs that task, so a simulated minute
+ * costs only the work done in it, and two runs that schedule the same tasks
+ * run them in the same order. Everything happens on the thread calling
+ * {@link #runUntil}: nodes, network deliveries and clients sharing a virtual
+ * clock form a single-threaded, deterministic simulation.
+ *
+ * Not thread-safe: only schedule from the thread running the events.
+ */
+class VirtualClock implements NodeClock {
+    // currentTimeMillis() at virtual time zero, so timestamps look real and
+    // are the same in every run
+    static final long START_MILLIS = 1_704_067_200_000L;
+
+    private record Event(long due, long sequence, Runnable task) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event other) {
+            int byDue = Long.compare(due, other.due);
+            return byDue != 0 ? byDue : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    @Override
+    public long currentTimeMillis() {
+        return START_MILLIS + TimeUnit.NANOSECONDS.toMillis(now);
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void schedule(String timer, Runnable task, long delay, TimeUnit unit) {
+        events.add(new Event(now + Math.max(0, unit.toNanos(delay)), sequence++, task));
+    }
+
+    /**
+     * Runs events in order until {@code done} holds or the next event is due
+     * after {@code deadline}; then the clock stands at the deadline, unless
+     * {@code done} stopped it earlier.
+     */
+    void runUntil(BooleanSupplier done, long deadline) {
+        while (!done.getAsBoolean()) {
+            Event next = events.peek();
+            if (next == null || next.due() > deadline) {
+                now = Math.max(now, deadline);
+                return;
+            }
+            events.poll();
+            now = next.due();
+            try {
+                next.task().run();
+            } catch (RuntimeException e) {
+                // Like a scheduler thread, don't let one failed task stop the others
+                System.err.println("Error in timer task: " + e);
+            }
+        }
+    }
+
+    /**
+     * Runs every event due up to {@code deadline}.
+     */
+    void runUntil(long deadline) {
+        runUntil(() -> false, deadline);
+    }
+}
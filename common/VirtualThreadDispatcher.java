@@ -0,0 +1,115 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * VirtualThreadDispatcher - Runs handlers on virtual threads
+ *
+ * By default every handler runs on the thread reading STDIN, so one slow
+ * handler (a read that serializes a huge set, say) delays every message
+ * behind it. This dispatcher runs handlers on virtual threads instead, with
+ * two flavours of ordering:
+ * - keyed tasks run one at a time, in submission order, per key (e.g. per
+ *   message source), so a client never sees its own requests reordered
+ * - unkeyed tasks run as soon as a virtual thread picks them up
+ *
+ * A key with no pending work holds no state, so the number of keys is not a
+ * memory concern.
+ */
+class VirtualThreadDispatcher {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Keys that currently have a virtual thread draining them, with their
+    // backlog. Guarded by itself.
+    private final Map<String, ArrayDeque<Runnable>> queues = new HashMap<>();
+
+    // Number of submitted tasks that have not finished yet
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition idle = idleLock.newCondition();
+    private int inFlight = 0;
+
+    /**
+     * Runs {@code task} after every task previously submitted with the same key.
+     */
+    void submit(String key, Runnable task) {
+        started();
+        synchronized (queues) {
+            ArrayDeque<Runnable> backlog = queues.get(key);
+            if (backlog != null) {
+                // A virtual thread is already draining this key; it will get to us
+                backlog.add(task);
+                return;
+            }
+            queues.put(key, new ArrayDeque<>());
+        }
+        executor.execute(() -> drain(key, task));
+    }
+
+    /**
+     * Runs {@code task} on its own virtual thread with no ordering guarantee.
+     */
+    void submit(Runnable task) {
+        started();
+        executor.execute(() -> runTask(task));
+    }
+
+    /**
+     * Blocks until every submitted task has finished.
+     */
+    void awaitIdle() throws InterruptedException {
+        idleLock.lock();
+        try {
+            while (inFlight > 0) {
+                idle.await();
+            }
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private void drain(String key, Runnable first) {
+        Runnable task = first;
+        while (task != null) {
+            runTask(task);
+            synchronized (queues) {
+                ArrayDeque<Runnable> backlog = queues.get(key);
+                task = backlog.poll();
+                if (task == null) {
+                    queues.remove(key);
+                }
+            }
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } finally {
+            finished();
+        }
+    }
+
+    private void started() {
+        idleLock.lock();
+        try {
+            inFlight++;
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private void finished() {
+        idleLock.lock();
+        try {
+            if (--inFlight == 0) {
+                idle.signalAll();
+            }
+        } finally {
+            idleLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
+//SOURCES ../common/IntList.java
+//SOURCES ../common/IntSet.java
+//SOURCES ../common/VirtualClock.java
+//SOURCES ../common/SimulatedNetwork.java
+//SOURCES ../common/Simulation.java
+//SOURCES SolutionEchoServer.java
+
+/**
+ * SimulateEcho - Echo workload against in-process nodes
+ *
+ * Runs the nodes of SolutionEchoServer on a simulated network inside this
+ * JVM, without bin/maelstrom, and checks every echo_ok against its request:
+ *   jbang SimulateEcho.java --node-count 3 --rate 1000 --time-limit 10
+ *
+ * See common/Simulation.java for all options.
+ */
+public class SimulateEcho {
+    public static void main(String[] args) throws Exception {
+        Simulation simulation = Simulation.fromArgs(args);
+        simulation.start(EchoServerSolution::new);
+
+        Simulation.Results results = simulation.run(random -> {
+            String echo = "Please echo " + random.nextInt(128);
+            return new Simulation.Operation("echo", body -> body.writeStringField("echo", echo), reply -> {
+                if (!echo.equals(reply.getString("echo"))) {
+                    throw new IllegalStateException("Expected " + echo + ", got " + reply.getString("echo"));
+                }
+            });
+        });
+        simulation.close();
+
+        System.out.println(results);
+        System.out.println(simulation.network().stats());
+    }
+}
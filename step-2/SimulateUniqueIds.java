@@ -0,0 +1,58 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
+//SOURCES ../common/IntList.java
+//SOURCES ../common/IntSet.java
+//SOURCES ../common/VirtualClock.java
+//SOURCES ../common/SimulatedNetwork.java
+//SOURCES ../common/Simulation.java
+//SOURCES SolutionUniqueIds.java
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SimulateUniqueIds - Unique ID workload against in-process nodes
+ *
+ * Runs the nodes of SolutionUniqueIds on a simulated network inside this
+ * JVM, without bin/maelstrom, and fails every generate_ok whose id was
+ * already handed out:
+ *   jbang SimulateUniqueIds.java --node-count 3 --rate 10000 --nemesis partition
+ *
+ * The solution's own system properties still apply, e.g.
+ * -Duniqueids.format=snowflake or -Dmaelstrom.dispatch=virtual.
+ * See common/Simulation.java for all options.
+ */
+public class SimulateUniqueIds {
+    public static void main(String[] args) throws Exception {
+        Simulation simulation = Simulation.fromArgs(args);
+        simulation.start(node -> {
+            if ("virtual".equals(System.getProperty("maelstrom.dispatch"))) {
+                node.dispatchOnVirtualThreads();
+            }
+            new UniqueIdServer(node);
+        });
+
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        Simulation.Results results = simulation.run(random -> new Simulation.Operation("generate", null, reply -> {
+            // Works for both formats: asText() of a number is its digits
+            String id = reply.get("id").asText();
+            if (!ids.add(id)) {
+                throw new IllegalStateException("Duplicate id " + id);
+            }
+        }));
+        simulation.close();
+
+        System.out.println(results);
+        System.out.println("unique ids: " + ids.size());
+        System.out.println(simulation.network().stats());
+    }
+}
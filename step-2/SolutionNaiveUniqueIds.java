@@ -1,11 +1,14 @@
 ///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
 //DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
-import java.util.Scanner;
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
 
 /**
  * SolutionNaiveUniqueIds - Naive Approach to Unique ID Generation
@@ -23,20 +26,9 @@ import java.util.Scanner;
  */
 public class SolutionNaiveUniqueIds {
     public static void main(String[] args) throws Exception {
-        Scanner scanner = new Scanner(System.in);
-        NaiveUniqueIdServer server = new NaiveUniqueIdServer();
-        
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            try {
-                String response = server.handleMessage(line);
-                if (response != null) {
-                    System.out.println(response);
-                }
-            } catch (Exception e) {
-                System.err.println("Error processing message: " + e.getMessage() + "\nInput was: " + line);
-            }
-        }
+        MaelstromNode node = new MaelstromNode();
+        new NaiveUniqueIdServer(node);
+        node.run();
     }
 }
 
@@ -52,73 +44,23 @@ public class SolutionNaiveUniqueIds {
  * each ID with the node ID to ensure global uniqueness without coordination.
  */
 class NaiveUniqueIdServer {
-    private final ObjectMapper mapper = new ObjectMapper();
-    private String nodeId;
+    private final MaelstromNode node;
     
     // Simple counter that starts at 0 - this is the root of the problem
     // as all nodes will have their own counters starting at 0
     private int counter = 0;
     
-    /**
-     * Logs a debug message to STDERR.
-     * 
-     * IMPORTANT: Maelstrom protocol requires all debug output to go to STDERR.
-     * Never use System.out for logging as it will corrupt the message protocol.
-     * 
-     * @param message The debug message to log
-     */
-    private void debug(String message) {
-        System.err.println("[" + (nodeId != null ? nodeId : "uninit") + "] " + message);
-    }
-    
-    public String handleMessage(String messageJson) throws Exception {
-        JsonNode message = mapper.readTree(messageJson);
-        String src = message.get("src").asText();
-        String dest = message.get("dest").asText();
-        JsonNode body = message.get("body");
-        String type = body.get("type").asText();
-        
-        if (type.equals("init")) {
-            return handleInit(src, dest, body);
-        } else if (type.equals("generate")) {
-            return handleGenerate(src, dest, body);
-        } else {
-            debug("Unknown message type: " + type);
-            return null;
-        }
-    }
-    
-    private String handleInit(String src, String dest, JsonNode body) throws Exception {
-        nodeId = body.get("node_id").asText();
-        debug("Node " + nodeId + " initialized");
-        
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "init_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
-        
-        return createResponse(src, responseBody);
+    NaiveUniqueIdServer(MaelstromNode node) {
+        this.node = node;
+        node.on("generate", this::handleGenerate);
     }
     
-    private String handleGenerate(String src, String dest, JsonNode body) throws Exception {
+    private void handleGenerate(Message message) throws Exception {
         // Increment the counter for each request - this is naive approach
         counter++;
         String id = String.valueOf(counter);
-        debug("Generated ID: " + id + " (WARNING: This may conflict with IDs from other nodes!)");
-        
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "generate_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
-        responseBody.put("id", id);
-        
-        return createResponse(src, responseBody);
-    }
-    
-    private String createResponse(String dest, ObjectNode body) throws Exception {
-        ObjectNode response = mapper.createObjectNode();
-        response.put("src", nodeId);
-        response.put("dest", dest);
-        response.set("body", body);
+        node.debug("Generated ID: " + id + " (WARNING: This may conflict with IDs from other nodes!)");
         
-        return mapper.writeValueAsString(response);
+        node.reply(message, "generate_ok", body -> body.writeStringField("id", id));
     }
 }
@@ -1,11 +1,18 @@
 ///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
 //DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * SolutionUniqueIds - Distributed Unique ID Generator
@@ -20,23 +27,19 @@ import java.util.Scanner;
  * unique without requiring coordination between nodes.
  * 
  * For example: "n1-1", "n1-2", "n2-1", "n3-1", etc.
+ * 
+ * With -Duniqueids.format=snowflake it returns numeric, time-sortable IDs
+ * instead (see {@link SnowflakeIds}).
  */
 public class SolutionUniqueIds {
     public static void main(String[] args) throws Exception {
-        Scanner scanner = new Scanner(System.in);
-        UniqueIdServer server = new UniqueIdServer();
-        
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            try {
-                String response = server.handleMessage(line);
-                if (response != null) {
-                    System.out.println(response);
-                }
-            } catch (Exception e) {
-                System.err.println("Error processing message: " + e.getMessage() + "\nInput was: " + line);
-            }
+        MaelstromNode node = new MaelstromNode();
+        // Opt-in: -Dmaelstrom.dispatch=virtual runs each handler on a virtual thread
+        if ("virtual".equals(System.getProperty("maelstrom.dispatch"))) {
+            node.dispatchOnVirtualThreads();
         }
+        new UniqueIdServer(node);
+        node.run();
     }
 }
 
@@ -51,76 +54,211 @@ public class SolutionUniqueIds {
  * 
  * This approach trades off ID compactness for availability and partition tolerance,
  * embodying the AP side of the CAP theorem.
+ * 
+ * The counter is an AtomicLong, so handlers running concurrently for
+ * different clients never hand out the same ID, and the "n1-" prefix is
+ * rendered once at init. Each ID is then written as characters straight into
+ * the reply, without building a String per request.
  */
 class UniqueIdServer {
-    private final ObjectMapper mapper = new ObjectMapper();
-    private String nodeId;
+    private final MaelstromNode node;
     
     // Counter for local sequential IDs, combined with nodeId for uniqueness
-    private int lastId = 0;
+    private final AtomicLong lastId = new AtomicLong();
     
-    /**
-     * Logs a debug message to STDERR.
-     * 
-     * IMPORTANT: Maelstrom protocol requires all debug output to go to STDERR.
-     * Never use System.out for logging as it will corrupt the message protocol.
-     * 
-     * @param message The debug message to log
-     */
-    private void debug(String message) {
-        System.err.println("[" + (nodeId != null ? nodeId : "uninit") + "] " + message);
+    // nodeId + "-", rendered once at init
+    private char[] prefix;
+    
+    // Set at init when the numeric format is selected
+    private final boolean snowflake = "snowflake".equals(System.getProperty("uniqueids.format"));
+    private SnowflakeIds snowflakeIds;
+    
+    UniqueIdServer(MaelstromNode node) {
+        this.node = node;
+        node.on("init", this::handleInit);
+        node.on("generate", this::handleGenerate);
     }
     
-    public String handleMessage(String messageJson) throws Exception {
-        JsonNode message = mapper.readTree(messageJson);
-        String src = message.get("src").asText();
-        String dest = message.get("dest").asText();
-        JsonNode body = message.get("body");
-        String type = body.get("type").asText();
-        
-        if (type.equals("init")) {
-            return handleInit(src, dest, body);
-        } else if (type.equals("generate")) {
-            return handleGenerate(src, dest, body);
-        } else {
-            debug("Unknown message type: " + type);
-            return null;
+    private void handleInit(Message message) throws Exception {
+        prefix = (node.nodeId() + "-").toCharArray();
+        if (snowflake) {
+            // node_ids lists the same nodes in the same order everywhere, so
+            // the index is unique without any coordination
+            snowflakeIds = new SnowflakeIds(node.nodeIds().indexOf(node.nodeId()), node, node.clock());
         }
     }
     
-    private String handleInit(String src, String dest, JsonNode body) throws Exception {
-        nodeId = body.get("node_id").asText();
-        debug("Node " + nodeId + " initialized");
+    private void handleGenerate(Message message) throws Exception {
+        if (snowflakeIds != null) {
+            snowflakeIds.next(id -> node.reply(message, "generate_ok", body -> body.writeNumberField("id", id)));
+            return;
+        }
+        
+        long id = nextId();
         
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "init_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
+        // Create a unique ID using node ID as prefix: "n1-" followed by the digits
+        char[] uniqueId = new char[prefix.length + 19];
+        System.arraycopy(prefix, 0, uniqueId, 0, prefix.length);
+        int length = prefix.length + writeDigits(id, uniqueId, prefix.length);
         
-        return createResponse(src, responseBody);
+        node.reply(message, "generate_ok", body -> {
+            body.writeFieldName("id");
+            body.writeString(uniqueId, 0, length);
+        });
     }
     
-    private String handleGenerate(String src, String dest, JsonNode body) throws Exception {
-        // Increment the counter for each request
-        lastId++;
-        
-        // Create a unique ID using node ID as prefix
-        String uniqueId = nodeId + "-" + lastId;
-        debug("Generated unique ID: " + uniqueId);
-        
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "generate_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
-        responseBody.put("id", uniqueId);
-        
-        return createResponse(src, responseBody);
+    /**
+     * Takes the next counter value. Refuses to wrap around at
+     * Long.MAX_VALUE, since that would hand out IDs again.
+     */
+    private long nextId() {
+        while (true) {
+            long current = lastId.get();
+            if (current == Long.MAX_VALUE) {
+                throw new IllegalStateException("ID space exhausted on " + node.nodeId());
+            }
+            if (lastId.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
     }
     
-    private String createResponse(String dest, ObjectNode body) throws Exception {
-        ObjectNode response = mapper.createObjectNode();
-        response.put("src", nodeId);
-        response.put("dest", dest);
-        response.set("body", body);
-        
-        return mapper.writeValueAsString(response);
+    /**
+     * Writes the decimal digits of a positive value at {@code offset}.
+     *
+     * @return The number of digits written
+     */
+    private static int writeDigits(long value, char[] out, int offset) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return digits;
+    }
+}
+
+/**
+ * Snowflake-style IDs: 64-bit longs that sort by creation time.
+ * 
+ * Layout, from the most significant bit:
+ * - 1 bit, always 0, so IDs are positive
+ * - 41 bits of milliseconds since {@link #EPOCH_MS}, enough for ~69 years
+ * - 10 bits of node index, the node's position in node_ids
+ * - 12 bits of sequence within the millisecond, 4096 IDs per ms per node
+ * 
+ * The timestamp never goes backwards: if the wall clock steps back (NTP, a VM
+ * migration), IDs keep using the last timestamp handed out and only the
+ * sequence advances, so no ID is ever issued twice. When the sequence of a
+ * millisecond runs out, the request is retried on a timer once the clock has
+ * moved past it, so no thread waits, least of all one holding the lock.
+ * 
+ * Time comes from the node's {@link NodeClock}, so in a deterministic
+ * simulation the IDs, and the waits, are the same on every run.
+ * 
+ * A long is 8 bytes against ~10 for "n1-42" plus its String header, and
+ * compares in a single instruction.
+ */
+class SnowflakeIds {
+    /**
+     * Receives an ID, possibly later and on a timer thread.
+     */
+    @FunctionalInterface
+    interface IdConsumer {
+        void accept(long id) throws Exception;
+    }
+    
+    // 2024-01-01T00:00:00Z
+    static final long EPOCH_MS = 1_704_067_200_000L;
+    
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODES = 1 << NODE_BITS;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final long MAX_TIMESTAMP = (1L << (63 - NODE_BITS - SEQUENCE_BITS)) - 1;
+    
+    private final long nodeBits;
+    private final MaelstromNode node;
+    private final NodeClock clock;
+    
+    // Guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastTimestamp = -1;
+    private long sequence = 0;
+    private boolean regressed = false;
+    
+    SnowflakeIds(int nodeIndex, MaelstromNode node, NodeClock clock) {
+        if (nodeIndex < 0 || nodeIndex >= MAX_NODES) {
+            throw new IllegalArgumentException("Node index " + nodeIndex + " does not fit in " + NODE_BITS + " bits");
+        }
+        this.nodeBits = (long) nodeIndex << SEQUENCE_BITS;
+        this.node = node;
+        this.clock = clock;
+    }
+    
+    /**
+     * Hands the next ID to {@code consumer}: right away, or from the
+     * "snowflake" timer if this millisecond's sequence is spent.
+     */
+    void next(IdConsumer consumer) throws Exception {
+        long id = tryNext(currentTimestamp());
+        if (id >= 0) {
+            consumer.accept(id);
+            return;
+        }
+        // 4096 IDs already issued in this millisecond: try again in the next
+        // one, or once a clock that went back has caught up
+        clock.schedule("snowflake", () -> {
+            try {
+                next(consumer);
+            } catch (Exception e) {
+                node.debug("Error generating a delayed ID: " + e.getMessage());
+            }
+        }, -id, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Takes the next ID at the time {@code now}, unless the sequence of the
+     * millisecond it would use is spent.
+     *
+     * @return The ID, or minus the number of ms to wait before trying again
+     */
+    private long tryNext(long now) {
+        lock.lock();
+        try {
+            long timestamp = now;
+            if (timestamp < lastTimestamp) {
+                if (!regressed) {
+                    node.debug("Clock went back " + (lastTimestamp - now) + "ms, holding timestamp at " + lastTimestamp);
+                    regressed = true;
+                }
+                timestamp = lastTimestamp;
+            } else if (timestamp > lastTimestamp) {
+                regressed = false;
+            }
+            
+            if (timestamp == lastTimestamp) {
+                if (sequence == MAX_SEQUENCE) {
+                    return -(lastTimestamp + 1 - now);
+                }
+                sequence++;
+            } else {
+                sequence = 0;
+            }
+            if (timestamp > MAX_TIMESTAMP) {
+                throw new IllegalStateException("Timestamp overflow on " + node.nodeId());
+            }
+            lastTimestamp = timestamp;
+            return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private long currentTimestamp() {
+        return clock.currentTimeMillis() - EPOCH_MS;
     }
 }
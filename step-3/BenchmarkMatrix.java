@@ -0,0 +1,449 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BenchmarkMatrix - Runs the broadcast workload over a grid of settings
+ *
+ * The run-goal scripts test one solution with one topology and one node
+ * count. This runs Maelstrom for every combination of solution, node count,
+ * topology, latency and rate, reads each run's results.edn, and writes a
+ * row per run to results.csv and results.md:
+ *   jbang BenchmarkMatrix.java --node-counts 5,25,50 --topologies grid,tree4,line,total --latencies 0,100
+ *
+ * Each row has the stable latencies (how long a broadcast value took to be
+ * visible on every node: p50, p95, p99 and max, in ms) and the messages
+ * between servers per operation, the two numbers the broadcast challenge is
+ * graded on, along with whether Maelstrom found the run valid.
+ *
+ * Options (comma-separated lists are swept):
+ *   --solutions   SolutionGoal1.java,SolutionGoal2.java,SolutionGoal3.java
+ *   --node-counts 5,25
+ *   --topologies  grid,tree4,line,total (any Maelstrom --topology; anything
+ *                 else, e.g. tree:8, star or hubs:3, is a SolutionGoal3
+ *                 overlay, set with -Dbroadcast.overlay and skipped for the
+ *                 other solutions)
+ *   --latencies   100 (ms)
+ *   --rates       10 (operations per second)
+ *   --time-limit  20 (seconds per run)
+ *   --maelstrom   ../bin/maelstrom
+ *   --out         store/matrix-TIMESTAMP
+ *   --dry-run     only print the runs
+ *
+ * Maelstrom's output for each run goes to runs/ in the output directory, and
+ * its store/ keeps every run as usual. The report is rewritten after every
+ * run, so a long sweep can be read, or interrupted, along the way.
+ */
+public class BenchmarkMatrix {
+    private static final String USAGE = "Options: --solutions FILES --node-counts NS --topologies TOPOLOGIES"
+            + " --latencies MS --rates OPS_PER_SECOND --time-limit SECONDS --maelstrom PATH --out DIR --dry-run";
+
+    // Topologies Maelstrom generates itself; others are SolutionGoal3 overlays
+    private static final Set<String> MAELSTROM_TOPOLOGIES = Set.of("grid", "line", "total", "tree2", "tree3", "tree4");
+    // The only solution that reads -Dbroadcast.overlay
+    private static final String OVERLAY_SOLUTION = "SolutionGoal3.java";
+
+    private static final String[] COLUMNS = {"solution", "nodes", "topology", "latency_ms", "rate",
+            "valid", "stable_p50_ms", "stable_p95_ms", "stable_p99_ms", "stable_max_ms", "msgs_per_op"};
+
+    /**
+     * One combination of settings.
+     */
+    record Run(String solution, int nodes, String topology, int latency, double rate) {
+        boolean overlay() {
+            return !MAELSTROM_TOPOLOGIES.contains(topology);
+        }
+
+        String name() {
+            return String.format(Locale.ROOT, "%s-n%d-%s-l%d-r%s", solution.replace(".java", ""), nodes,
+                    topology.replace(':', '_'), latency, format(rate));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<String> solutions = list(option(options, "--solutions", "SolutionGoal1.java,SolutionGoal2.java,SolutionGoal3.java"));
+        List<String> nodeCounts = list(option(options, "--node-counts", "5,25"));
+        List<String> topologies = list(option(options, "--topologies", "grid,tree4,line,total"));
+        List<String> latencies = list(option(options, "--latencies", "100"));
+        List<String> rates = list(option(options, "--rates", "10"));
+        int timeLimit = Integer.parseInt(option(options, "--time-limit", "20"));
+        String maelstrom = option(options, "--maelstrom", "../bin/maelstrom");
+        Path out = Paths.get(option(options, "--out",
+                "store/matrix-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))));
+        boolean dryRun = options.remove("--dry-run") != null;
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet() + "\n" + USAGE);
+        }
+
+        List<Run> runs = new ArrayList<>();
+        for (String solution : solutions) {
+            for (String topology : topologies) {
+                Run probe = new Run(solution, 0, topology, 0, 0);
+                if (probe.overlay() && !solution.equals(OVERLAY_SOLUTION)) {
+                    System.err.println("Skipping overlay " + topology + " for " + solution + ": only " + OVERLAY_SOLUTION + " has overlays");
+                    continue;
+                }
+                for (String nodes : nodeCounts) {
+                    for (String latency : latencies) {
+                        for (String rate : rates) {
+                            runs.add(new Run(solution, Integer.parseInt(nodes), topology,
+                                    Integer.parseInt(latency), Double.parseDouble(rate)));
+                        }
+                    }
+                }
+            }
+        }
+        System.out.printf(Locale.ROOT, "%d runs of %d s each, results in %s%n", runs.size(), timeLimit, out);
+
+        if (!dryRun) {
+            Files.createDirectories(out.resolve("runs"));
+            for (String solution : solutions) {
+                build(solution);
+            }
+        }
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = runs.get(i);
+            List<String> command = command(maelstrom, run, timeLimit);
+            System.out.printf(Locale.ROOT, "[%d/%d] %s%s%n", i + 1, runs.size(),
+                    run.overlay() ? "-Dbroadcast.overlay=" + run.topology() + " " : "", String.join(" ", command));
+            if (dryRun) {
+                continue;
+            }
+            Map<String, String> row = execute(run, command, out.resolve("runs").resolve(run.name() + ".log"));
+            System.out.println("  " + row);
+            rows.add(row);
+            writeCsv(rows, out.resolve("results.csv"));
+            writeMarkdown(rows, out.resolve("results.md"));
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (!name.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + name + "\n" + USAGE);
+            }
+            if (name.equals("--dry-run")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + name + "\n" + USAGE);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Reads (and consumes) an option, so the ones left over can be rejected.
+     */
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static List<String> list(String value) {
+        return Arrays.asList(value.split(","));
+    }
+
+    /**
+     * Builds a solution once up front, as the run scripts do, so the first run
+     * doesn't spend its time limit compiling.
+     */
+    private static void build(String solution) throws IOException, InterruptedException {
+        new File(solution).setExecutable(true);
+        Process process = new ProcessBuilder("jbang", "build", solution).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("jbang build " + solution + " failed");
+        }
+    }
+
+    private static List<String> command(String maelstrom, Run run, int timeLimit) {
+        return List.of(maelstrom, "test",
+                "-w", "broadcast",
+                "--bin", "./" + run.solution(),
+                "--node-count", Integer.toString(run.nodes()),
+                "--time-limit", Integer.toString(timeLimit),
+                "--rate", format(run.rate()),
+                // Overlays ignore the topology message, so any topology will do
+                "--topology", run.overlay() ? "grid" : run.topology(),
+                "--latency", Integer.toString(run.latency()));
+    }
+
+    /**
+     * Runs Maelstrom, its output going to {@code log}, and reads the results
+     * of the run from store/latest/results.edn.
+     */
+    private static Map<String, String> execute(Run run, List<String> command, Path log) throws IOException, InterruptedException {
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put("solution", run.solution().replace(".java", ""));
+        row.put("nodes", Integer.toString(run.nodes()));
+        row.put("topology", run.topology());
+        row.put("latency_ms", Integer.toString(run.latency()));
+        row.put("rate", format(run.rate()));
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile());
+        if (run.overlay()) {
+            // Inherited by maelstrom's node processes
+            String javaOptions = System.getenv("JAVA_TOOL_OPTIONS");
+            builder.environment().put("JAVA_TOOL_OPTIONS",
+                    (javaOptions != null ? javaOptions + " " : "") + "-Dbroadcast.overlay=" + run.topology());
+        }
+        Path results = Paths.get("store", "latest", "results.edn");
+        Path previous = Files.exists(results) ? results.toRealPath() : null;
+        int exitCode = builder.start().waitFor();
+
+        // Each run gets its own directory in store/, which latest then points
+        // to; a run that crashed before the analysis leaves it on the last one
+        if (!Files.exists(results) || results.toRealPath().equals(previous)) {
+            row.put("valid", "error (exit " + exitCode + ", see " + log + ")");
+            return row;
+        }
+        Map<?, ?> edn = (Map<?, ?>) new EdnReader(Files.readString(results, StandardCharsets.UTF_8)).read();
+        row.put("valid", String.valueOf(get(edn, "valid?")));
+        Object stable = get(edn, "workload", "stable-latencies");
+        if (stable instanceof Map<?, ?> percentiles) {
+            // Keys are quantiles: 0.5, 0.95, 0.99 and 1
+            row.put("stable_p50_ms", quantile(percentiles, 0.5));
+            row.put("stable_p95_ms", quantile(percentiles, 0.95));
+            row.put("stable_p99_ms", quantile(percentiles, 0.99));
+            row.put("stable_max_ms", quantile(percentiles, 1));
+        }
+        Object msgsPerOp = get(edn, "net", "servers", "msgs-per-op");
+        if (msgsPerOp instanceof Number number) {
+            row.put("msgs_per_op", String.format(Locale.ROOT, "%.2f", number.doubleValue()));
+        }
+        return row;
+    }
+
+    /**
+     * Follows keywords down nested maps; null if any is missing.
+     */
+    private static Object get(Object edn, String... keywords) {
+        for (String keyword : keywords) {
+            if (!(edn instanceof Map<?, ?> map)) {
+                return null;
+            }
+            edn = map.get(":" + keyword);
+        }
+        return edn;
+    }
+
+    private static String quantile(Map<?, ?> percentiles, double quantile) {
+        for (Map.Entry<?, ?> entry : percentiles.entrySet()) {
+            if (entry.getKey() instanceof Number key && key.doubleValue() == quantile && entry.getValue() instanceof Number value) {
+                return format(value.doubleValue());
+            }
+        }
+        return "";
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static void writeCsv(List<Map<String, String>> rows, Path file) throws IOException {
+        StringBuilder text = new StringBuilder(String.join(",", COLUMNS)).append('\n');
+        for (Map<String, String> row : rows) {
+            List<String> cells = new ArrayList<>();
+            for (String column : COLUMNS) {
+                String cell = row.getOrDefault(column, "");
+                cells.add(cell.contains(",") || cell.contains(" ") ? "\"" + cell.replace("\"", "\"\"") + "\"" : cell);
+            }
+            text.append(String.join(",", cells)).append('\n');
+        }
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+    }
+
+    private static void writeMarkdown(List<Map<String, String>> rows, Path file) throws IOException {
+        StringBuilder text = new StringBuilder("| ").append(String.join(" | ", COLUMNS)).append(" |\n|");
+        text.append(" --- |".repeat(COLUMNS.length)).append('\n');
+        for (Map<String, String> row : rows) {
+            text.append('|');
+            for (String column : COLUMNS) {
+                text.append(' ').append(row.getOrDefault(column, "").replace("|", "\\|")).append(" |");
+            }
+            text.append('\n');
+        }
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * EdnReader - Just enough EDN to read Maelstrom's results.edn
+ *
+ * Maps become LinkedHashMaps, vectors, lists and sets become Lists, numbers
+ * Longs or Doubles (ratios included), strings Strings, true/false/nil
+ * Booleans and null. Keywords and symbols stay Strings, keywords with their
+ * leading ':', so {:valid? true} reads as {":valid?": true}. Tagged values
+ * (#inst "...", #jepsen.history.Op{...}) read as the value after the tag.
+ */
+class EdnReader {
+    private final String text;
+    private int position = 0;
+
+    EdnReader(String text) {
+        this.text = text;
+    }
+
+    Object read() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of EDN");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                position++;
+                Map<Object, Object> map = new LinkedHashMap<>();
+                while (!closes('}')) {
+                    Object key = read();
+                    map.put(key, read());
+                }
+                return map;
+            case '[':
+            case '(':
+                position++;
+                return readUntil(c == '[' ? ']' : ')');
+            case '"':
+                return readString();
+            case '#':
+                position++;
+                if (position < text.length() && text.charAt(position) == '{') {
+                    position++;
+                    return readUntil('}');
+                }
+                if (position < text.length() && text.charAt(position) == '_') {
+                    // Discard the next value
+                    position++;
+                    read();
+                    return read();
+                }
+                readToken();
+                return read();
+            default:
+                return atom(readToken());
+        }
+    }
+
+    private List<Object> readUntil(char end) {
+        List<Object> values = new ArrayList<>();
+        while (!closes(end)) {
+            values.add(read());
+        }
+        return values;
+    }
+
+    private boolean closes(char end) {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw new IllegalArgumentException("Missing '" + end + "' in EDN");
+        }
+        if (text.charAt(position) == end) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private String readString() {
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (text.charAt(position) != '"') {
+            char c = text.charAt(position++);
+            if (c == '\\') {
+                char escaped = text.charAt(position++);
+                value.append(switch (escaped) {
+                    case 'n' -> '\n';
+                    case 't' -> '\t';
+                    case 'r' -> '\r';
+                    default -> escaped;
+                });
+            } else {
+                value.append(c);
+            }
+        }
+        position++;
+        return value.toString();
+    }
+
+    private String readToken() {
+        int start = position;
+        while (position < text.length() && !isDelimiter(text.charAt(position))) {
+            position++;
+        }
+        if (position == start) {
+            throw new IllegalArgumentException("Unexpected '" + text.charAt(position) + "' at " + position + " in EDN");
+        }
+        return text.substring(start, position);
+    }
+
+    private static Object atom(String token) {
+        switch (token) {
+            case "nil":
+                return null;
+            case "true":
+                return true;
+            case "false":
+                return false;
+        }
+        char first = token.charAt(0);
+        boolean numeric = Character.isDigit(first)
+                || ((first == '-' || first == '+') && token.length() > 1 && Character.isDigit(token.charAt(1)));
+        if (!numeric) {
+            return token;
+        }
+        // Clojure's BigInt and BigDecimal suffixes
+        String number = token.endsWith("N") || token.endsWith("M") ? token.substring(0, token.length() - 1) : token;
+        int slash = number.indexOf('/');
+        if (slash > 0) {
+            return Double.parseDouble(number.substring(0, slash)) / Double.parseDouble(number.substring(slash + 1));
+        }
+        if (number.contains(".") || number.contains("e") || number.contains("E")) {
+            return Double.parseDouble(number);
+        }
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(number);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == ';') {
+                while (position < text.length() && text.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (Character.isWhitespace(c) || c == ',') {
+                position++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || c == ',' || "{}[]()\";".indexOf(c) >= 0;
+    }
+}
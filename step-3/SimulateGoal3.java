@@ -0,0 +1,172 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
+//SOURCES ../common/IntSet.java
+//SOURCES ../common/ConcurrentIntSet.java
+//SOURCES ../common/IntList.java
+//SOURCES ../common/IntervalSet.java
+//SOURCES ../common/PackedInts.java
+//SOURCES ../common/JsonIntArray.java
+//SOURCES ../common/BucketDigest.java
+//SOURCES ../common/RttEstimator.java
+//SOURCES ../common/VirtualClock.java
+//SOURCES ../common/SimulatedNetwork.java
+//SOURCES ../common/Simulation.java
+//SOURCES SolutionGoal3.java
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SimulateGoal3 - Broadcast workload against in-process nodes
+ *
+ * Runs the nodes of SolutionGoal3 on a simulated network inside this JVM,
+ * without bin/maelstrom. Clients mix broadcasts of new values with reads;
+ * once the time limit is up and any partition is healed, every node is read
+ * until it has every acknowledged value, which gives the convergence time:
+ *   jbang SimulateGoal3.java --node-count 25 --rate 100 --latency 100 --nemesis partition
+ *
+ * Add --deterministic to run it single-threaded in virtual time: a given
+ * --seed then reproduces latencies, messages per operation and convergence
+ * time exactly, which makes it the way to compare two commits.
+ *
+ * Besides the common options (see common/Simulation.java) it takes
+ * --topology grid|line|total, sent to the nodes like Maelstrom's, and
+ * --convergence-timeout SECONDS. The solution's own system properties
+ * (broadcast.overlay, gossip.encoding...) still apply.
+ */
+public class SimulateGoal3 {
+    // Time between two rounds of reads while waiting for convergence
+    private static final long CONVERGENCE_POLL_MS = 50;
+
+    public static void main(String[] args) throws Exception {
+        Simulation simulation = Simulation.fromArgs(args);
+        String topology = simulation.option("--topology", "grid");
+        long convergenceTimeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(simulation.option("--convergence-timeout", "30")));
+        // The shard count defaults to the number of cores, which would make
+        // deterministic runs differ from one machine to the next
+        if (simulation.isDeterministic() && System.getProperty("broadcast.shards") == null) {
+            System.setProperty("broadcast.shards", "4");
+        }
+        simulation.start(node -> {
+            if ("virtual".equals(System.getProperty("maelstrom.dispatch"))) {
+                node.dispatchOnVirtualThreads();
+            }
+            new BroadcastServer(node);
+        });
+
+        List<String> nodeIds = simulation.nodeIds();
+        for (String id : nodeIds) {
+            List<String> neighbors = neighbors(topology, nodeIds, nodeIds.indexOf(id));
+            simulation.call(id, "topology", body -> {
+                body.writeObjectFieldStart("topology");
+                body.writeArrayFieldStart(id);
+                for (String neighbor : neighbors) {
+                    body.writeString(neighbor);
+                }
+                body.writeEndArray();
+                body.writeEndObject();
+            });
+        }
+
+        AtomicInteger nextValue = new AtomicInteger();
+        ConcurrentIntSet acknowledged = new ConcurrentIntSet();
+        Simulation.Results results = simulation.run(random -> {
+            if (random.nextBoolean()) {
+                return new Simulation.Operation("read", null, null);
+            }
+            int value = nextValue.getAndIncrement();
+            return new Simulation.Operation("broadcast", body -> body.writeNumberField("message", value),
+                    reply -> acknowledged.add(value));
+        });
+
+        // Read every node until each has all acknowledged values
+        long healed = simulation.nanoTime();
+        List<String> lagging = new ArrayList<>(nodeIds);
+        while (!lagging.isEmpty() && simulation.nanoTime() - healed < convergenceTimeoutNanos) {
+            lagging.removeIf(id -> hasEverything(simulation, id, acknowledged));
+            if (!lagging.isEmpty()) {
+                simulation.sleep(CONVERGENCE_POLL_MS);
+            }
+        }
+        long convergenceMs = TimeUnit.NANOSECONDS.toMillis(simulation.nanoTime() - healed);
+        simulation.close();
+
+        System.out.println(results);
+        System.out.println(lagging.isEmpty()
+                ? "converged: all " + acknowledged.size() + " acknowledged values on every node " + convergenceMs + " ms after the run"
+                : "not converged after " + convergenceMs + " ms: " + lagging + " still miss acknowledged values");
+        System.out.println(simulation.network().stats());
+    }
+
+    /**
+     * Neighbors of node {@code index}, laid out like Maelstrom's topologies.
+     */
+    private static List<String> neighbors(String topology, List<String> nodeIds, int index) {
+        List<String> neighbors = new ArrayList<>();
+        int count = nodeIds.size();
+        switch (topology) {
+            case "total" -> {
+                for (int i = 0; i < count; i++) {
+                    if (i != index) {
+                        neighbors.add(nodeIds.get(i));
+                    }
+                }
+            }
+            case "line" -> {
+                if (index > 0) {
+                    neighbors.add(nodeIds.get(index - 1));
+                }
+                if (index + 1 < count) {
+                    neighbors.add(nodeIds.get(index + 1));
+                }
+            }
+            case "grid" -> {
+                int width = (int) Math.ceil(Math.sqrt(count));
+                int row = index / width;
+                int column = index % width;
+                if (row > 0) {
+                    neighbors.add(nodeIds.get(index - width));
+                }
+                if (index + width < count) {
+                    neighbors.add(nodeIds.get(index + width));
+                }
+                if (column > 0) {
+                    neighbors.add(nodeIds.get(index - 1));
+                }
+                if (column + 1 < width && index + 1 < count) {
+                    neighbors.add(nodeIds.get(index + 1));
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown topology: " + topology);
+        }
+        return neighbors;
+    }
+
+    private static boolean hasEverything(Simulation simulation, String id, ConcurrentIntSet acknowledged) {
+        IntSet seen = new IntSet();
+        try {
+            for (int value : simulation.call(id, "read", null).getIntArray("messages")) {
+                seen.add(value);
+            }
+        } catch (TimeoutException e) {
+            return false;
+        } catch (Exception e) {
+            throw new IllegalStateException("Read from " + id + " failed", e);
+        }
+        boolean[] complete = {true};
+        acknowledged.forEach(value -> complete[0] &= seen.contains(value));
+        return complete[0];
+    }
+}
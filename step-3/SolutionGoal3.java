@@ -1,20 +1,39 @@
 ///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
 //DEPS com.fasterxml.jackson.core:jackson-databind:2.15.2
+//SOURCES ../common/LineReader.java
+//SOURCES ../common/Message.java
+//SOURCES ../common/MessageDecoder.java
+//SOURCES ../common/MessageEncoder.java
+//SOURCES ../common/OutboundWriter.java
+//SOURCES ../common/VirtualThreadDispatcher.java
+//SOURCES ../common/NodeClock.java
+//SOURCES ../common/MaelstromNode.java
+//SOURCES ../common/IntSet.java
+//SOURCES ../common/ConcurrentIntSet.java
+//SOURCES ../common/IntList.java
+//SOURCES ../common/IntervalSet.java
+//SOURCES ../common/PackedInts.java
+//SOURCES ../common/JsonIntArray.java
+//SOURCES ../common/BucketDigest.java
+//SOURCES ../common/RttEstimator.java
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
-import java.util.Scanner;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.Map;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ArrayDeque;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 import java.util.Collections;
 
 /**
@@ -31,20 +50,13 @@ import java.util.Collections;
  */
 public class SolutionGoal3 {
     public static void main(String[] args) throws Exception {
-        Scanner scanner = new Scanner(System.in);
-        BroadcastServer server = new BroadcastServer();
-        
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            try {
-                String response = server.handleMessage(line);
-                if (response != null) {
-                    System.out.println(response);
-                }
-            } catch (Exception e) {
-                System.err.println("Error processing message: " + e.getMessage() + "\nInput was: " + line);
-            }
+        MaelstromNode node = new MaelstromNode();
+        // Opt-in: -Dmaelstrom.dispatch=virtual runs each handler on a virtual thread
+        if ("virtual".equals(System.getProperty("maelstrom.dispatch"))) {
+            node.dispatchOnVirtualThreads();
         }
+        new BroadcastServer(node);
+        node.run();
     }
 }
 
@@ -57,284 +69,1166 @@ public class SolutionGoal3 {
  * 
  * The gossip protocol works by:
  * 1. Each node periodically selects a random neighbor
- * 2. The node shares all messages it has seen with that neighbor
+ * 2. The node shares the messages that neighbor has not acknowledged yet
  * 3. This ensures eventual propagation of all messages to all nodes
  * 4. Even when the network is temporarily partitioned
+ *
+ * Every value is appended to a log in the order this node learned it (one
+ * log per shard of the {@link MessageStore}), and each neighbor has a
+ * watermark into that log: everything before it was
+ * carried by a gossip the neighbor acknowledged with gossip_ok. A gossip round
+ * only ships the log past the watermark, so its size follows the new traffic
+ * instead of the whole history. Every FULL_SYNC_MS the whole set is sent
+ * anyway, as ranges of consecutive values, in case a neighbor lost state
+ * the watermark says it has.
+ *
+ * With -Dgossip.antientropy=digest that round sends a {@link BucketDigest}
+ * instead. The neighbor answers with the buckets that differ and its values in
+ * them, and the node sends back its own values in those buckets that the
+ * neighbor lacks, so healing a partition costs about as much as the
+ * divergence rather than the whole set.
+ *
+ * Gossip is push-pull. A full gossip's gossip_ok carries the values the
+ * sender's ranges lack, so a single round trip leaves both sides with the
+ * union. Every gossip_ok also reports the receiver's value count; when it is
+ * larger than ours, we are missing something and the next round to that
+ * neighbor is a full one.
+ *
+ * Gossip rounds run on a scheduler that adapts to the state of the
+ * neighbors. While some neighbor is behind, that is it has log entries older
+ * than SETTLE_MS that are neither acknowledged nor in flight, rounds come every
+ * MIN_GOSSIP_MS and go to up to GOSSIP_FANOUT of the lagging neighbors. Once
+ * everyone is caught up the interval doubles up to MAX_GOSSIP_MS. A neighbor
+ * that acknowledges again after HEAL_AFTER_MS of silence is assumed to come
+ * back from a partition and gets a full sync right away.
+ *
+ * New values are not forwarded one message each: they wait in a per-neighbor
+ * outbox for up to -Dbroadcast.linger.ms (default 20, 0 sends right away) or
+ * until -Dbroadcast.batch.size values (default 100) piled up, and then go out
+ * as a single broadcast_batch message.
+ *
+ * By default the neighbors are the ones Maelstrom proposes in the topology
+ * message. With -Dbroadcast.overlay=tree:4, star or hubs:3 the node ignores
+ * that and builds its own overlay from node_ids at init instead (see
+ * {@link Overlay}).
+ *
+ * Gossip and broadcast_batch carry their values as a JSON "messages" array.
+ * With -Dgossip.encoding=packed they carry a base64 "packed" field instead
+ * (see {@link PackedInts}); receivers understand both.
+ *
+ * Those batches are tracked until their broadcast_batch_ok arrives and resent
+ * if it doesn't in time. Values a neighbor confirmed (or sent us itself) are
+ * never sent to it again, eagerly or by gossip.
+ *
+ * "In time" is per neighbor: every batch and gossip reply feeds that
+ * neighbor's {@link RttEstimator}, which gives a timeout from the smoothed RTT
+ * and backs off exponentially, with jitter, while the neighbor stays silent.
+ * A neighbor that keeps timing out also gets its batches held for a timeout
+ * rather than the usual linger, so a partitioned peer costs a few probes
+ * instead of a message per linger window.
+ *
+ * Time, timers and the random source all come from the node, so a
+ * simulation can run the server in virtual time with a fixed seed
+ * (SimulateGoal3 --deterministic) and replay a run exactly.
  */
 class BroadcastServer {
-    private final ObjectMapper mapper = new ObjectMapper();
-    private String nodeId;
+    private final MaelstromNode node;
+    
+    // Builds the neighbor list from node_ids; null to use the topology message
+    private final Overlay overlay = Overlay.parse(System.getProperty("broadcast.overlay", "maelstrom"));
+    
+    // Neighbors from topology information. Never modified in place: a new
+    // topology swaps in a new immutable list, so readers just take the
+    // current one without locking
+    private volatile List<String> neighbors = List.of();
+    
+    // Storage for messages that have been seen by this node, with the order
+    // they arrived in, split into shards so concurrent handlers rarely
+    // contend (-Dbroadcast.shards, default one per core)
+    private final MessageStore store = new MessageStore(
+        Integer.getInteger("broadcast.shards", Runtime.getRuntime().availableProcessors()));
+    
+    // Position of every node in node_ids, set at init, so the source of a
+    // message is looked up once rather than searched for every value
+    private volatile Map<String, Integer> nodeIndexes = Map.of();
+    
+    // Values each neighbor is known to have: it acknowledged them or sent them to us
+    private final Map<String, ConcurrentIntSet> ackedByNeighbor = new ConcurrentHashMap<>();
+    
+    // Values waiting to be forwarded, per neighbor
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private static final long LINGER_MS = Long.getLong("broadcast.linger.ms", 20);
+    private static final int BATCH_SIZE = Integer.getInteger("broadcast.batch.size", 100);
     
-    // Set of neighbors from topology information
-    private List<String> neighbors = Collections.synchronizedList(new ArrayList<>());
+    // Batches waiting for their broadcast_batch_ok, by msg_id
+    private final Map<Integer, PendingBroadcast> pending = new ConcurrentHashMap<>();
     
-    // Storage for messages that have been seen by this node
-    private Set<Integer> messages = ConcurrentHashMap.newKeySet();
+    // Round trip estimates per neighbor, for retry timeouts
+    private final Map<String, RttEstimator> rtt = new ConcurrentHashMap<>();
+    private static final long INITIAL_RTO_MS = 1000;
+    private static final long MIN_RTO_MS = 100;
+    private static final long MAX_RTO_MS = 10_000;
     
-    // Track which messages have been sent to each neighbor
-    private Map<String, Set<Integer>> messagesSentToNeighbor = new ConcurrentHashMap<>();
+    // Resend an unacknowledged batch at most MAX_ATTEMPTS times; past that
+    // the values are left to gossip
+    private static final int MAX_ATTEMPTS = 5;
     
-    // For generating message IDs
-    private int nextMsgId = 0;
+    // A neighbor with this many timeouts in a row counts as unreachable
+    private static final int UNREACHABLE_AFTER = 2;
+    
+    // The read_ok "messages" array, already serialized and extended as
+    // values arrive, so a read is one copy however many values there are
+    private final JsonIntArray readResponse = new JsonIntArray();
+    
+    // Gossip watermark and in-flight gossips per neighbor
+    private final Map<String, GossipState> gossipState = new ConcurrentHashMap<>();
+    
+    // Send node-to-node value lists as PackedInts instead of JSON arrays
+    private static final boolean PACKED = "packed".equals(System.getProperty("gossip.encoding"));
+    
+    // Anti-entropy rounds exchange digests instead of the full set
+    private static final boolean DIGEST = "digest".equals(System.getProperty("gossip.antientropy"));
+    private final BucketDigest digest = new BucketDigest(256);
+    
+    // Makes a new value visible to reads and the digest; the store runs it
+    // under its shard lock (a field, so learn() allocates no lambda)
+    private final IntConsumer publish = value -> {
+        readResponse.add(value);
+        digest.add(value);
+    };
+    
+    // Gossip pacing, see the class comment
+    private static final long MIN_GOSSIP_MS = 50;
+    private static final long MAX_GOSSIP_MS = 1000;
+    private static final int GOSSIP_FANOUT = 3;
+    private static final long SETTLE_MS = 500;
+    private static final long HEAL_AFTER_MS = 2000;
+    private static final long FULL_SYNC_MS = 5000;
+    
+    // Set when gossip taught us something, i.e. some node was behind us
+    private volatile boolean diverged = false;
+    
+    // Only touched by the gossip thread: the current interval, when the last
+    // full sync went out, the shard log sizes seen at recent rounds with
+    // their time, the sizes SETTLE_MS ago, and the delta being sent
+    private long gossipInterval = MAX_GOSSIP_MS;
+    private long lastFullSync;
+    private final ArrayDeque<LogSample> logHistory = new ArrayDeque<>();
+    private int[] settledSizes;
+    private final IntList gossipBatch = new IntList();
+    
+    // Time and timers: outboxes are flushed on the "broadcast-flusher" timer
+    // once their linger time is up, gossip rounds run on the "gossip" timer
+    private final NodeClock clock;
     
     // Random number generator for selecting gossip targets
-    private final Random random = new Random();
+    private final Random random;
     
-    /**
-     * Logs a debug message to STDERR.
-     * 
-     * IMPORTANT: Maelstrom protocol requires all debug output to go to STDERR.
-     * Never use System.out for logging as it will corrupt the message protocol.
-     * 
-     * @param message The debug message to log
-     */
-    private void debug(String message) {
-        System.err.println("[" + (nodeId != null ? nodeId : "uninit") + "] " + message);
+    BroadcastServer(MaelstromNode node) {
+        this.node = node;
+        this.clock = node.clock();
+        this.random = node.random();
+        this.lastFullSync = clock.currentTimeMillis();
+        node.on("init", this::handleInit);
+        // Topology replaces the neighbor list, so nothing may run alongside it
+        node.on("topology", MaelstromNode.Ordering.BARRIER, this::handleTopology);
+        node.on("broadcast", this::handleBroadcast);
+        node.on("broadcast_batch", this::handleBroadcastBatch);
+        node.on("read", this::handleRead);
+        node.on("gossip", this::handleGossip);
+        node.on("gossip_ok", this::handleGossipOk);
+        node.on("digest", this::handleDigest);
+        node.on("digest_ok", this::handleDigestOk);
+        node.on("broadcast_batch_ok", this::handleBroadcastBatchOk);
+        // Ignore acknowledgment messages
+        node.ignore("broadcast_ok", "topology_ok", "read_ok");
     }
     
-    public String handleMessage(String messageJson) throws Exception {
-        JsonNode message = mapper.readTree(messageJson);
-        String src = message.get("src").asText();
-        String dest = message.get("dest").asText();
-        JsonNode body = message.get("body");
-        String type = body.get("type").asText();
-        
-        if (type.equals("init")) {
-            return handleInit(src, dest, body);
-        } else if (type.equals("topology")) {
-            return handleTopology(src, dest, body);
-        } else if (type.equals("broadcast")) {
-            return handleBroadcast(src, dest, body);
-        } else if (type.equals("read")) {
-            return handleRead(src, dest, body);
-        } else if (type.equals("gossip")) {
-            return handleGossip(src, dest, body);
-        } else if (type.equals("broadcast_ok") || type.equals("topology_ok") || type.equals("read_ok") || type.equals("gossip_ok")) {
-            // Ignore acknowledgment messages
-            return null;
-        } else {
-            debug("Unknown message type: " + type);
-            return null;
+    private void handleInit(Message message) throws Exception {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> nodeIds = node.nodeIds();
+        for (int i = 0; i < nodeIds.size(); i++) {
+            indexes.put(nodeIds.get(i), i);
         }
-    }
-    
-    private String handleInit(String src, String dest, JsonNode body) throws Exception {
-        nodeId = body.get("node_id").asText();
-        JsonNode nodeIdsNode = body.get("node_ids");
-        List<String> nodeIds = new ArrayList<>();
-        for (JsonNode nodeIdNode : nodeIdsNode) {
-            nodeIds.add(nodeIdNode.asText());
+        nodeIndexes = Map.copyOf(indexes);
+        
+        if (overlay != null) {
+            setNeighbors(overlay.neighbors(node.nodeId(), node.nodeIds()));
+            node.debug("Built overlay: neighbors = " + neighbors);
         }
-        debug("Node " + nodeId + " initialized with " + nodeIds.size() + " nodes in cluster");
         
         // Start gossip protocol (periodically send messages to random neighbors)
         startGossipThread();
-        
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "init_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
-        
-        return createResponse(src, responseBody);
     }
     
-    private String handleTopology(String src, String dest, JsonNode body) throws Exception {
-        JsonNode topologyNode = body.get("topology");
-        JsonNode nodeNeighbors = topologyNode.get(nodeId);
-        
-        neighbors.clear();
-        for (JsonNode neighborNode : nodeNeighbors) {
-            String neighbor = neighborNode.asText();
-            neighbors.add(neighbor);
-            messagesSentToNeighbor.put(neighbor, ConcurrentHashMap.newKeySet());
+    private void handleTopology(Message message) throws Exception {
+        if (overlay == null) {
+            JsonNode topologyNode = message.body().get("topology");
+            List<String> proposed = new ArrayList<>();
+            for (JsonNode neighborNode : topologyNode.get(node.nodeId())) {
+                proposed.add(neighborNode.asText());
+            }
+            setNeighbors(proposed);
+            node.debug("Received topology: neighbors = " + neighbors);
+        } else {
+            node.debug("Ignoring proposed topology, keeping overlay neighbors " + neighbors);
         }
-        debug("Received topology: neighbors = " + neighbors);
-        
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "topology_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
         
-        return createResponse(src, responseBody);
+        node.reply(message, "topology_ok");
+    }
+    
+    private void setNeighbors(List<String> newNeighbors) {
+        for (String neighbor : newNeighbors) {
+            ackedByNeighbor.putIfAbsent(neighbor, new ConcurrentIntSet());
+        }
+        neighbors = List.copyOf(newNeighbors);
     }
     
-    private String handleBroadcast(String src, String dest, JsonNode body) throws Exception {
+    private void handleBroadcast(Message request) throws Exception {
         // Add the message to our known messages
-        int message = body.get("message").asInt();
-        boolean isNew = messages.add(message);
+        String src = request.src();
+        int srcIndex = nodeIndex(src);
+        int message = request.getInt("message");
+        boolean isNew = learn(message, src, srcIndex);
         
         if (isNew) {
-            debug("Received new message: " + message + " from " + src);
-            
-            // Propagate to neighbors (except the source)
-            for (String neighbor : neighbors) {
-                if (!neighbor.equals(src)) {
-                    // Mark this message as to be sent during gossip
-                    Set<Integer> sentMessages = messagesSentToNeighbor.get(neighbor);
-                    if (sentMessages != null && !sentMessages.contains(message)) {
-                        // Add to tracking set to avoid resending
-                        sentMessages.add(message);
-                        
-                        // Send immediately to this neighbor
-                        sendBroadcast(neighbor, message);
-                        debug("Propagated message " + message + " to neighbor " + neighbor);
-                    }
-                }
-            }
+            node.debug("Received new message: " + message + " from " + src);
+            forward(message);
         } else {
-            debug("Ignoring duplicate message: " + message);
+            node.debug("Ignoring duplicate message: " + message);
         }
         
         // Send acknowledgment back to the client/node that sent us this message
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "broadcast_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
-        
-        return createResponse(src, responseBody);
+        node.reply(request, "broadcast_ok");
     }
     
-    private String handleRead(String src, String dest, JsonNode body) throws Exception {
-        debug("Received read request from " + src);
-        
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "read_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
-        
-        ArrayNode messagesArray = mapper.createArrayNode();
-        for (int message : messages) {
-            messagesArray.add(message);
+    /**
+     * Several values forwarded by a neighbor at once; each new one is
+     * forwarded in turn, exactly like a single broadcast.
+     */
+    private void handleBroadcastBatch(Message request) throws Exception {
+        String src = request.src();
+        int srcIndex = nodeIndex(src);
+        for (int message : readValues(request)) {
+            if (learn(message, src, srcIndex)) {
+                forward(message);
+            }
         }
-        responseBody.set("messages", messagesArray);
+        node.reply(request, "broadcast_batch_ok");
+    }
+    
+    /**
+     * Queues a new value for every neighbor that doesn't have it yet.
+     */
+    private void forward(int message) throws Exception {
+        for (String neighbor : neighbors) {
+            ConcurrentIntSet acked = ackedByNeighbor.get(neighbor);
+            if (acked != null && !acked.contains(message)) {
+                enqueue(neighbor, message);
+            }
+        }
+    }
+    
+    private void enqueue(String neighbor, int message) throws Exception {
+        Outbox outbox = outboxes.computeIfAbsent(neighbor, k -> new Outbox());
+        // Don't keep sending batches into a partition; one per timeout will do
+        RttEstimator estimate = rtt(neighbor);
+        boolean unreachable = estimate.failures() >= UNREACHABLE_AFTER;
+        long linger = unreachable ? Math.max(LINGER_MS, estimate.timeout()) : LINGER_MS;
+        boolean flushNow;
+        boolean schedule = false;
+        synchronized (outbox) {
+            outbox.values.add(message);
+            flushNow = !unreachable && (LINGER_MS <= 0 || outbox.values.size() >= BATCH_SIZE);
+            if (!flushNow && !outbox.scheduled) {
+                outbox.scheduled = true;
+                schedule = true;
+            }
+        }
+        if (flushNow) {
+            flush(neighbor);
+        } else if (schedule) {
+            clock.schedule("broadcast-flusher", () -> {
+                try {
+                    flush(neighbor);
+                } catch (Exception e) {
+                    node.debug("Error flushing outbox for " + neighbor + ": " + e.getMessage());
+                }
+            }, linger, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Sends everything waiting in the neighbor's outbox as one batch.
+     */
+    private void flush(String neighbor) throws Exception {
+        Outbox outbox = outboxes.get(neighbor);
+        int[] batch;
+        synchronized (outbox) {
+            outbox.scheduled = false;
+            if (outbox.values.isEmpty()) {
+                return;
+            }
+            batch = outbox.values.toArray();
+            outbox.values.clear();
+        }
+        sendBroadcastBatch(neighbor, batch, 1);
+        node.debug("Forwarded " + batch.length + " messages to neighbor " + neighbor);
+    }
+    
+    private void handleRead(Message message) throws Exception {
+        node.debug("Received read request from " + message.src());
         
-        return createResponse(src, responseBody);
+        node.reply(message, "read_ok", body -> readResponse.writeField(body, "messages"));
     }
     
     /**
      * Handle gossip messages from other nodes
      * 
-     * This is the key to partition tolerance - nodes exchange their 
-     * full set of messages during gossip to ensure eventual consistency.
+     * This is the key to partition tolerance - nodes keep exchanging the
+     * messages their neighbors have not acknowledged to ensure eventual
+     * consistency.
      */
-    private String handleGossip(String src, String dest, JsonNode body) throws Exception {
+    private void handleGossip(Message request) throws Exception {
         // Process and merge incoming gossip messages
-        JsonNode gossipMessages = body.get("messages");
+        String src = request.src();
+        int srcIndex = nodeIndex(src);
+        int[] gossipMessages = readValues(request);
         boolean addedAny = false;
         
-        for (JsonNode messageNode : gossipMessages) {
-            int message = messageNode.asInt();
-            boolean isNew = messages.add(message);
-            
-            if (isNew) {
+        for (int message : gossipMessages) {
+            // New values are forwarded like broadcasts; gossip only catches
+            // what that loses
+            if (learn(message, src, srcIndex)) {
                 addedAny = true;
-                debug("Learned new message " + message + " from gossip");
-                
-                // Propagate to other neighbors in future gossip rounds
-                for (String neighbor : neighbors) {
-                    if (!neighbor.equals(src)) {
-                        Set<Integer> sentMessages = messagesSentToNeighbor.get(neighbor);
-                        if (sentMessages != null) {
-                            sentMessages.remove(message); // Ensure it will be sent
-                        }
-                    }
+                forward(message);
+                node.debug("Learned new message " + message + " from gossip");
+            }
+        }
+        
+        // A full gossip carries the sender's whole set as start/end pairs;
+        // only the parts we don't hold yet are walked
+        int[] ranges = validRanges(request.getIntArray("ranges"), src);
+        int[] own = ranges.length > 0 ? storeRanges() : new int[0];
+        IntList newRanges = new IntList();
+        subtractRanges(ranges, own, newRanges);
+        for (int i = 0; i < newRanges.size(); i += 2) {
+            int end = newRanges.get(i + 1);
+            for (int message = newRanges.get(i); ; message++) {
+                if (learn(message, src, srcIndex)) {
+                    addedAny = true;
+                    forward(message);
+                }
+                if (message == end) {
+                    break; // not message <= end, which never fails for end == MAX_VALUE
                 }
             }
         }
         
         if (addedAny) {
-            debug("Added new messages from gossip from " + src);
+            diverged = true;
+            node.debug("Added new messages from gossip from " + src);
         }
         
-        // Send acknowledgment back to the gossiping node
-        ObjectNode responseBody = mapper.createObjectNode();
-        responseBody.put("type", "gossip_ok");
-        responseBody.put("in_reply_to", body.get("msg_id").asInt());
+        // Send acknowledgment back to the gossiping node, with whatever a
+        // full gossip showed it lacks and our count so it can tell if it
+        // lacks anything else
+        int[] missing = ranges.length > 0 ? valuesOutside(own, ranges) : new int[0];
+        long count = store.size();
+        node.reply(request, "gossip_ok", body -> {
+            body.writeNumberField("count", count);
+            if (missing.length > 0) {
+                writeValues(body, missing);
+            }
+        });
+        if (missing.length > 0) {
+            node.debug("Sent " + missing.length + " messages missing at " + src + " with gossip_ok");
+        }
+    }
+    
+    /**
+     * The start/end pairs of a full gossip that make sense: each one in
+     * order, and past the one before it. Anything else, say [5, 3], is
+     * dropped rather than walked value by value.
+     */
+    private int[] validRanges(int[] ranges, String src) {
+        IntList valid = new IntList();
+        long previousEnd = Long.MIN_VALUE;
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
+            if (ranges[i] > ranges[i + 1] || ranges[i] <= previousEnd) {
+                node.debug("Ignored range [" + ranges[i] + ", " + ranges[i + 1] + "] in gossip from " + src);
+                continue;
+            }
+            valid.add(ranges[i]);
+            valid.add(ranges[i + 1]);
+            previousEnd = ranges[i + 1];
+        }
+        return valid.size() == ranges.length ? ranges : valid.toArray();
+    }
+    
+    /**
+     * Our whole set as sorted start/end pairs.
+     */
+    private int[] storeRanges() {
+        IntList pairs = new IntList();
+        store.ranges(pairs);
+        return pairs.toArray();
+    }
+    
+    /**
+     * Appends to {@code out} the parts of {@code ranges} outside
+     * {@code removed}, both sorted, disjoint start/end pairs. Linear in the
+     * number of ranges, however many values they cover.
+     */
+    private static void subtractRanges(int[] ranges, int[] removed, IntList out) {
+        int first = 0;
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
+            long start = ranges[i];
+            long end = ranges[i + 1];
+            // Removed ranges that end before this one are done with
+            while (first + 1 < removed.length && removed[first + 1] < start) {
+                first += 2;
+            }
+            for (int r = first; start <= end; r += 2) {
+                if (r + 1 >= removed.length || removed[r] > end) {
+                    out.add((int) start);
+                    out.add((int) end);
+                    break;
+                }
+                if (removed[r] > start) {
+                    out.add((int) start);
+                    out.add(removed[r] - 1);
+                }
+                start = (long) removed[r + 1] + 1;
+            }
+        }
+    }
+    
+    /**
+     * Our values not covered by {@code ranges}, sorted start/end pairs as
+     * sent in a full gossip, given our own set as {@code own}.
+     */
+    private static int[] valuesOutside(int[] own, int[] ranges) {
+        IntList outside = new IntList();
+        subtractRanges(own, ranges, outside);
+        IntList values = new IntList();
+        for (int i = 0; i < outside.size(); i += 2) {
+            int end = outside.get(i + 1);
+            for (int value = outside.get(i); ; value++) {
+                values.add(value);
+                if (value == end) {
+                    break;
+                }
+            }
+        }
+        return values.toArray();
+    }
+    
+    /**
+     * The neighbor confirmed a batch, so it is never sent those values again.
+     */
+    private void handleBroadcastBatchOk(Message response) throws Exception {
+        PendingBroadcast sent = pending.remove(response.inReplyTo());
+        if (sent != null) {
+            // Every attempt has its own msg_id, so the sample is unambiguous
+            rtt(sent.dest()).sample(clock.currentTimeMillis() - sent.sentAt());
+            ConcurrentIntSet acked = ackedByNeighbor.get(sent.dest());
+            if (acked != null) {
+                for (int message : sent.messages()) {
+                    acked.add(message);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Resends every batch whose acknowledgment is overdue, under a new
+     * msg_id and without the values acknowledged since. Called from the
+     * gossip thread.
+     */
+    private void retryPending() throws Exception {
+        long now = clock.currentTimeMillis();
+        for (PendingBroadcast sent : pending.values()) {
+            if (now < sent.deadline() || !pending.remove(sent.msgId(), sent)) {
+                continue;
+            }
+            rtt(sent.dest()).timedOut();
+            ConcurrentIntSet acked = ackedByNeighbor.get(sent.dest());
+            if (sent.attempts() >= MAX_ATTEMPTS || acked == null) {
+                continue;
+            }
+            IntList missing = new IntList(sent.messages().length);
+            for (int message : sent.messages()) {
+                if (!acked.contains(message)) {
+                    missing.add(message);
+                }
+            }
+            if (!missing.isEmpty()) {
+                node.debug("Retrying " + missing.size() + " messages to " + sent.dest());
+                sendBroadcastBatch(sent.dest(), missing.toArray(), sent.attempts() + 1);
+            }
+        }
+    }
+    
+    /**
+     * A neighbor's digest: answer with the buckets that differ and our
+     * values in them.
+     */
+    private void handleDigest(Message request) throws Exception {
+        IntList buckets = digest.differingBuckets(request.getIntArray("digest"));
+        int[] ours = valuesInBuckets(buckets, new IntSet());
+        node.debug("Digest from " + request.src() + " differs in " + buckets.size() + " buckets");
         
-        return createResponse(src, responseBody);
+        node.reply(request, "digest_ok", body -> {
+            body.writeArrayFieldStart("buckets");
+            buckets.forEach(body::writeNumber);
+            body.writeEndArray();
+            writeValues(body, ours);
+        });
     }
     
     /**
-     * Start a background thread that periodically sends gossip messages to random neighbors
+     * The neighbor's values in the buckets where our digests differ: keep
+     * the ones we lack and send back the ones it lacks.
+     */
+    private void handleDigestOk(Message response) throws Exception {
+        String src = response.src();
+        int srcIndex = nodeIndex(src);
+        int[] theirs = readValues(response);
+        IntSet theirSet = new IntSet(theirs.length);
+        for (int message : theirs) {
+            theirSet.add(message);
+            if (learn(message, src, srcIndex)) {
+                diverged = true;
+                forward(message);
+            }
+        }
+        
+        IntList buckets = new IntList();
+        for (int bucket : response.getIntArray("buckets")) {
+            if (bucket >= 0 && bucket < digest.bucketCount()) {
+                buckets.add(bucket);
+            }
+        }
+        int[] missing = valuesInBuckets(buckets, theirSet);
+        if (missing.length > 0) {
+            // The gossip_ok matches no watermark entry and is simply dropped
+            node.send(src, "gossip", node.nextMsgId(), body -> writeValues(body, missing));
+            node.debug("Sent " + missing.length + " messages missing at " + src);
+        }
+    }
+    
+    /**
+     * Our values that fall in the given digest buckets, except those in
+     * {@code skip}.
+     */
+    private int[] valuesInBuckets(IntList buckets, IntSet skip) {
+        IntList values = new IntList();
+        if (buckets.isEmpty()) {
+            return values.toArray();
+        }
+        boolean[] wanted = new boolean[digest.bucketCount()];
+        buckets.forEach(bucket -> wanted[bucket] = true);
+        store.forEach(value -> {
+            if (wanted[digest.bucket(value)] && !skip.contains(value)) {
+                values.add(value);
+            }
+        });
+        return values.toArray();
+    }
+    
+    /**
+     * A neighbor has everything the acknowledged gossip carried, so its
+     * watermark moves up to the end of that gossip. The reply may also carry
+     * values we were missing.
+     */
+    private void handleGossipOk(Message response) throws Exception {
+        String src = response.src();
+        int srcIndex = nodeIndex(src);
+        // The pull half: values the neighbor has and we don't
+        for (int message : readValues(response)) {
+            if (learn(message, src, srcIndex)) {
+                diverged = true;
+                forward(message);
+            }
+        }
+        
+        GossipState state = gossipState(src);
+        synchronized (state) {
+            if (response.getLong("count") > store.size()) {
+                state.fullSyncDue = true;
+            }
+            long now = clock.currentTimeMillis();
+            if (state.lastAckAt > 0 && now - state.lastAckAt >= HEAL_AFTER_MS) {
+                // Silent for a while: probably partitioned, so check everything
+                state.fullSyncDue = true;
+                diverged = true;
+                node.debug("Heard from " + src + " again, scheduling a full sync");
+            }
+            state.lastAckAt = now;
+            GossipSent sent = state.inFlight.remove(response.inReplyTo());
+            if (sent != null) {
+                rtt(src).sample(now - sent.sentAt());
+                state.acknowledge(sent.end());
+            }
+        }
+    }
+    
+    /**
+     * Position of {@code id} in node_ids, or -1 for a client.
+     */
+    private int nodeIndex(String id) {
+        return nodeIndexes.getOrDefault(id, -1);
+    }
+    
+    /**
+     * Records a value seen for the first time.
+     *
+     * @param srcIndex The sender's {@link #nodeIndex}, looked up once per message
+     * @return true if the value was new
+     */
+    private boolean learn(int message, String src, int srcIndex) {
+        // Whoever sent us the value has it, whether or not it is new to us
+        ConcurrentIntSet acked = ackedByNeighbor.get(src);
+        if (acked != null) {
+            acked.add(message);
+        }
+        // Published before the store lets go of the value: a duplicate of
+        // it, answered broadcast_ok, must not be followed by a read that lacks it
+        return store.add(message, srcIndex, publish);
+    }
+    
+    /**
+     * Start the gossip rounds on their own scheduler thread
      * 
      * This is the core of the gossip protocol - even if direct message propagation
-     * fails due to network partitions, this background process will eventually
-     * ensure all messages propagate to all nodes when connectivity is restored.
+     * fails due to network partitions, these rounds will eventually ensure all
+     * messages propagate to all nodes when connectivity is restored.
      */
     private void startGossipThread() {
-        Thread gossipThread = new Thread(() -> {
-            try {
-                // Sleep before starting gossip to ensure full initialization
-                Thread.sleep(1000);
+        clock.schedule("gossip", this::gossipRound, MIN_GOSSIP_MS, TimeUnit.MILLISECONDS);
+        node.debug("Started gossip scheduler");
+    }
+    
+    /**
+     * One gossip round; schedules the next one when done.
+     */
+    private void gossipRound() {
+        try {
+            retryPending();
+            
+            // Only gossip if we have neighbors and messages
+            List<String> current = neighbors;
+            if (!current.isEmpty() && store.size() > 0) {
+                long now = clock.currentTimeMillis();
+                int[] settled = settledLogSizes(now);
+                boolean fullSync = now - lastFullSync >= FULL_SYNC_MS;
+                if (fullSync) {
+                    lastFullSync = now;
+                }
                 
-                while (true) {
-                    try {
-                        // Only gossip if we have neighbors and messages
-                        if (!neighbors.isEmpty() && !messages.isEmpty()) {
-                            // Select a random neighbor to gossip with
-                            String neighbor = neighbors.get(random.nextInt(neighbors.size()));
-                            sendGossip(neighbor);
-                        }
-                        
-                        // Sleep between gossip rounds
-                        Thread.sleep(200);
-                    } catch (Exception e) {
-                        debug("Error in gossip thread: " + e.getMessage());
+                List<String> candidates = new ArrayList<>(current);
+                Collections.shuffle(candidates, random);
+                List<String> targets = new ArrayList<>();
+                for (String neighbor : candidates) {
+                    if (targets.size() < GOSSIP_FANOUT && isBehind(neighbor, settled, now)) {
+                        targets.add(neighbor);
                     }
                 }
-            } catch (Exception e) {
-                debug("Gossip thread terminated: " + e.getMessage());
+                boolean busy = !targets.isEmpty() || diverged;
+                diverged = false;
+                if (targets.isEmpty()) {
+                    // Heartbeat: usually sends nothing, unless a full sync is due
+                    targets.add(candidates.get(0));
+                }
+                for (String neighbor : targets) {
+                    sendGossip(neighbor, settled, fullSync, now);
+                }
+                
+                gossipInterval = busy ? MIN_GOSSIP_MS : Math.min(gossipInterval * 2, MAX_GOSSIP_MS);
             }
-        });
-        gossipThread.setDaemon(true);
-        gossipThread.start();
-        debug("Started gossip thread");
+        } catch (Exception e) {
+            node.debug("Error in gossip round: " + e.getMessage());
+        } finally {
+            clock.schedule("gossip", this::gossipRound, gossipInterval, TimeUnit.MILLISECONDS);
+        }
     }
     
-    private void sendGossip(String dest) throws Exception {
-        ObjectNode body = mapper.createObjectNode();
-        body.put("type", "gossip");
-        body.put("msg_id", nextMsgId++);
-        
-        ArrayNode messagesArray = mapper.createArrayNode();
-        for (int message : messages) {
-            messagesArray.add(message);
+    /**
+     * How long each shard's log was SETTLE_MS ago. Entries past that are
+     * still being forwarded eagerly and are left out of gossip until that had
+     * its chance.
+     */
+    private int[] settledLogSizes(long now) {
+        if (settledSizes == null) {
+            settledSizes = new int[store.shardCount()];
+        }
+        logHistory.addLast(new LogSample(now, store.logSizes()));
+        // The newest sample that is old enough wins
+        while (now - logHistory.peekFirst().time() >= SETTLE_MS) {
+            settledSizes = logHistory.removeFirst().sizes();
+        }
+        return settledSizes;
+    }
+    
+    private GossipState gossipState(String neighbor) {
+        return gossipState.computeIfAbsent(neighbor, k -> new GossipState(store.shardCount()));
+    }
+    
+    private RttEstimator rtt(String neighbor) {
+        return rtt.computeIfAbsent(neighbor, k -> new RttEstimator(INITIAL_RTO_MS, MIN_RTO_MS, MAX_RTO_MS, random));
+    }
+    
+    private boolean isBehind(String neighbor, int[] settled, long now) {
+        GossipState state = gossipState(neighbor);
+        synchronized (state) {
+            if (state.fullSyncDue) {
+                return true;
+            }
+            int[] from = state.deltaStart(now);
+            for (int shard = 0; shard < from.length; shard++) {
+                if (from[shard] < settled[shard]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    private void sendGossip(String dest, int[] settled, boolean fullSync, long now) throws Exception {
+        GossipState state = gossipState(dest);
+        int[] from;
+        synchronized (state) {
+            if (state.retryAt > 0 && now >= state.retryAt && state.hasUnacknowledged()) {
+                // The last gossip went unanswered; count it once
+                rtt(dest).timedOut();
+                state.retryAt = 0;
+            }
+            fullSync |= state.fullSyncDue;
+            state.fullSyncDue = false;
+            from = state.deltaStart(now);
+        }
+        if (fullSync && DIGEST) {
+            int[] hashes = digest.toArray();
+            node.send(dest, "digest", node.nextMsgId(), body -> {
+                body.writeArrayFieldStart("digest");
+                for (int hash : hashes) {
+                    body.writeNumber(hash);
+                }
+                body.writeEndArray();
+            });
+            return;
         }
-        body.set("messages", messagesArray);
         
-        // Track that we've sent all these messages to this neighbor
-        Set<Integer> sentMessages = messagesSentToNeighbor.get(dest);
-        if (sentMessages != null) {
-            for (int message : messages) {
-                sentMessages.add(message);
+        IntList delta = gossipBatch;
+        delta.clear();
+        int[] end;
+        if (fullSync) {
+            // Everything in the logs up to end is in the set by now
+            end = store.logSizes();
+            // The whole set as start/end pairs: a few ints however many values it holds
+            store.ranges(delta);
+        } else {
+            // Collect the settled logs past the watermarks, minus what dest already has
+            int destIndex = nodeIndex(dest);
+            ConcurrentIntSet acked = ackedByNeighbor.computeIfAbsent(dest, k -> new ConcurrentIntSet());
+            end = new int[from.length];
+            for (int shard = 0; shard < from.length; shard++) {
+                end[shard] = Math.max(from[shard], settled[shard]);
+                store.collect(shard, from[shard], end[shard], destIndex, acked::contains, delta);
             }
         }
         
-        ObjectNode requestMessage = mapper.createObjectNode();
-        requestMessage.put("src", nodeId);
-        requestMessage.put("dest", dest);
-        requestMessage.set("body", body);
+        if (delta.isEmpty()) {
+            // Everything in that range is known to be at dest already
+            synchronized (state) {
+                state.skipped(from, end);
+            }
+            return;
+        }
         
-        System.out.println(mapper.writeValueAsString(requestMessage));
-        debug("Sent gossip to " + dest + " with " + messages.size() + " messages");
+        int msgId = node.nextMsgId();
+        synchronized (state) {
+            // Gossips lost to a partition are never acknowledged; drop them
+            // rather than let the map grow, the watermark just stays put
+            if (state.inFlight.size() >= 1024) {
+                state.inFlight.clear();
+            }
+            state.inFlight.put(msgId, new GossipSent(end, now));
+            System.arraycopy(end, 0, state.sentUpTo, 0, end.length);
+            state.retryAt = now + rtt(dest).timeout();
+        }
+        int[] values = delta.toArray();
+        if (fullSync) {
+            node.send(dest, "gossip", msgId, body -> {
+                body.writeArrayFieldStart("ranges");
+                for (int value : values) {
+                    body.writeNumber(value);
+                }
+                body.writeEndArray();
+            });
+            node.debug("Sent full gossip to " + dest + " with " + values.length / 2 + " ranges");
+        } else {
+            node.send(dest, "gossip", msgId, body -> writeValues(body, values));
+            node.debug("Sent delta gossip to " + dest + " with " + values.length + " messages");
+        }
     }
     
-    private void sendBroadcast(String dest, int message) throws Exception {
-        ObjectNode body = mapper.createObjectNode();
-        body.put("type", "broadcast");
-        body.put("message", message);
-        body.put("msg_id", nextMsgId++);
-        
-        ObjectNode requestMessage = mapper.createObjectNode();
-        requestMessage.put("src", nodeId);
-        requestMessage.put("dest", dest);
-        requestMessage.set("body", body);
-        
-        System.out.println(mapper.writeValueAsString(requestMessage));
+    private void sendBroadcastBatch(String dest, int[] messages, int attempt) throws Exception {
+        int msgId = node.nextMsgId();
+        long now = clock.currentTimeMillis();
+        pending.put(msgId, new PendingBroadcast(msgId, dest, messages, attempt, now, now + rtt(dest).timeout()));
+        node.send(dest, "broadcast_batch", msgId, body -> writeValues(body, messages));
     }
     
-    private String createResponse(String dest, ObjectNode body) throws Exception {
-        ObjectNode response = mapper.createObjectNode();
-        response.put("src", nodeId);
-        response.put("dest", dest);
-        response.set("body", body);
-        
-        return mapper.writeValueAsString(response);
+    /**
+     * Writes a node-to-node list of values, packed or as a JSON array.
+     */
+    private static void writeValues(JsonGenerator body, int[] values) throws IOException {
+        if (PACKED) {
+            body.writeBinaryField("packed", PackedInts.encode(values, values.length));
+        } else {
+            body.writeArrayFieldStart("messages");
+            for (int value : values) {
+                body.writeNumber(value);
+            }
+            body.writeEndArray();
+        }
+    }
+    
+    private static int[] readValues(Message message) {
+        String packed = message.getString("packed");
+        return packed != null ? PackedInts.decode(packed) : message.getIntArray("messages");
+    }
+}
+
+/**
+ * Gossip progress with one neighbor, as positions in each shard's log.
+ * Everything before ackedUpTo is known to have reached it; inFlight maps the
+ * msg_id of each unacknowledged gossip to the positions it covers. Guarded by
+ * the instance itself.
+ */
+class GossipState {
+    final int[] ackedUpTo;
+    final int[] sentUpTo;      // end of the latest gossip sent
+    final Map<Integer, GossipSent> inFlight = new HashMap<>();
+    long retryAt = 0;          // when the latest gossip counts as lost
+    long lastAckAt = 0;        // when the neighbor last acknowledged a gossip
+    boolean fullSyncDue = false;
+
+    GossipState(int shards) {
+        ackedUpTo = new int[shards];
+        sentUpTo = new int[shards];
+    }
+
+    /**
+     * Where the next delta starts in each shard: after what the neighbor
+     * acknowledged, and after what is in flight unless that timed out.
+     */
+    int[] deltaStart(long now) {
+        if (now >= retryAt) {
+            return ackedUpTo.clone();
+        }
+        int[] start = new int[ackedUpTo.length];
+        for (int shard = 0; shard < start.length; shard++) {
+            start[shard] = Math.max(ackedUpTo[shard], sentUpTo[shard]);
+        }
+        return start;
+    }
+
+    boolean hasUnacknowledged() {
+        for (int shard = 0; shard < ackedUpTo.length; shard++) {
+            if (sentUpTo[shard] > ackedUpTo[shard]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void acknowledge(int[] end) {
+        for (int shard = 0; shard < end.length; shard++) {
+            ackedUpTo[shard] = Math.max(ackedUpTo[shard], end[shard]);
+        }
+        // Gossips covering no more than that are no longer interesting
+        inFlight.values().removeIf(sent -> covered(sent.end()));
+    }
+
+    /**
+     * from..end held nothing the neighbor lacks, so move past it without
+     * sending: as acknowledged where it starts at the watermark, as sent
+     * where it starts after something still in flight.
+     */
+    void skipped(int[] from, int[] end) {
+        for (int shard = 0; shard < end.length; shard++) {
+            if (from[shard] <= ackedUpTo[shard]) {
+                ackedUpTo[shard] = Math.max(ackedUpTo[shard], end[shard]);
+            } else {
+                sentUpTo[shard] = Math.max(sentUpTo[shard], end[shard]);
+            }
+        }
+    }
+
+    private boolean covered(int[] end) {
+        for (int shard = 0; shard < end.length; shard++) {
+            if (end[shard] > ackedUpTo[shard]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+/**
+ * Overlay - Picks a node's broadcast neighbors from the cluster membership
+ *
+ * Every node computes its own neighbors from the same node_ids list, so the
+ * overlays agree without any coordination. The shape trades hops (latency)
+ * against edges (messages per broadcast):
+ * - tree:k  k-ary tree in node_ids order; log_k(n) hops, n-1 edges
+ * - star    the first node is the hub for everybody else; 2 hops, n-1 edges,
+ *           but the hub carries every message
+ * - hubs:h  the first h nodes are fully connected hubs and every other node
+ *           hangs off one of them; at most 3 hops, with the load spread over
+ *           h hubs
+ */
+@FunctionalInterface
+interface Overlay {
+    List<String> neighbors(String nodeId, List<String> nodeIds);
+
+    /**
+     * @param spec "maelstrom", "tree:k", "star" or "hubs:h"
+     * @return the overlay, or null for "maelstrom" (use the topology message)
+     */
+    static Overlay parse(String spec) {
+        String[] parts = spec.split(":", 2);
+        int arg = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        switch (parts[0]) {
+            case "maelstrom":
+                return null;
+            case "tree":
+                return tree(arg > 0 ? arg : 4);
+            case "star":
+                return hubs(1);
+            case "hubs":
+                return hubs(arg > 0 ? arg : 3);
+            default:
+                throw new IllegalArgumentException("Unknown overlay: " + spec);
+        }
+    }
+
+    static Overlay tree(int fanout) {
+        return (nodeId, nodeIds) -> {
+            int index = nodeIds.indexOf(nodeId);
+            List<String> result = new ArrayList<>();
+            if (index > 0) {
+                result.add(nodeIds.get((index - 1) / fanout));
+            }
+            for (int child = index * fanout + 1; child <= index * fanout + fanout && child < nodeIds.size(); child++) {
+                result.add(nodeIds.get(child));
+            }
+            return result;
+        };
+    }
+
+    static Overlay hubs(int count) {
+        return (nodeId, nodeIds) -> {
+            int index = nodeIds.indexOf(nodeId);
+            int hubCount = Math.min(count, nodeIds.size());
+            List<String> result = new ArrayList<>();
+            if (index >= hubCount) {
+                result.add(nodeIds.get(index % hubCount));
+                return result;
+            }
+            for (int i = 0; i < nodeIds.size(); i++) {
+                // The other hubs, plus the leaves assigned to this hub
+                boolean otherHub = i < hubCount && i != index;
+                boolean ownLeaf = i >= hubCount && i % hubCount == index;
+                if (otherHub || ownLeaf) {
+                    result.add(nodeIds.get(i));
+                }
+            }
+            return result;
+        };
+    }
+}
+
+/**
+ * Values waiting to be forwarded to one neighbor. Guarded by the instance
+ * itself.
+ */
+class Outbox {
+    final IntList values = new IntList();
+    boolean scheduled = false; // a flush is already scheduled
+}
+
+/**
+ * A broadcast_batch to a neighbor that has not been acknowledged yet.
+ */
+record PendingBroadcast(int msgId, String dest, int[] messages, int attempts, long sentAt, long deadline) {
+}
+
+/**
+ * A gossip waiting for its gossip_ok: the log position it covers and when it
+ * was sent.
+ */
+record GossipSent(int[] end, long sentAt) {
+}
+
+/**
+ * The shard log sizes at one gossip round.
+ */
+record LogSample(long time, int[] sizes) {
+}
+
+/**
+ * MessageStore - The values a node has seen, split into independently locked
+ * shards
+ *
+ * Once handlers run on virtual threads, one lock around the whole set is
+ * where every broadcast queues up. Values are spread over the shards by
+ * block of 2^BLOCK_BITS consecutive values, so threads adding different
+ * values rarely meet, while a run of consecutive values still lands in one
+ * shard and stays a single range in that shard's IntervalSet.
+ *
+ * Each shard also logs its new values in arrival order, with where they came
+ * from, and gossip keeps its per-neighbor positions into those logs. Gossip
+ * for different neighbors, or different shards, never waits on one lock.
+ */
+class MessageStore {
+    private static final int BLOCK_BITS = 6;
+
+    private final Shard[] shards;
+    private final int mask;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * One shard; every field is guarded by the shard itself.
+     */
+    private static final class Shard {
+        final IntervalSet values = new IntervalSet();
+        final IntList log = new IntList();
+        final IntList sources = new IntList();
+    }
+
+    /**
+     * @param shardCount Number of shards, rounded up to a power of two
+     */
+    MessageStore(int shardCount) {
+        int count = Integer.highestOneBit(Math.max(1, shardCount) * 2 - 1);
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        mask = count - 1;
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Adds a value and logs it if it is new. {@code onNew} then runs with
+     * the shard still locked, so anyone adding the same value meanwhile
+     * only hears it is a duplicate once {@code onNew} is done.
+     *
+     * @param source Where the value came from, e.g. an index into node_ids
+     * @return true if the value was new
+     */
+    boolean add(int value, int source, IntConsumer onNew) {
+        Shard shard = shardOf(value);
+        synchronized (shard) {
+            if (!shard.values.add(value)) {
+                return false;
+            }
+            shard.log.add(value);
+            shard.sources.add(source);
+            onNew.accept(value);
+        }
+        size.incrementAndGet();
+        return true;
+    }
+
+    long size() {
+        return size.get();
+    }
+
+    /**
+     * The current length of every shard's log.
+     */
+    int[] logSizes() {
+        int[] sizes = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            synchronized (shards[i]) {
+                sizes[i] = shards[i].log.size();
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Appends to {@code out} the values at positions from..to of one shard's
+     * log, except those from {@code excludedSource} and those {@code skip}
+     * accepts.
+     */
+    void collect(int shard, int from, int to, int excludedSource, IntPredicate skip, IntList out) {
+        Shard s = shards[shard];
+        synchronized (s) {
+            for (int i = from; i < to; i++) {
+                int value = s.log.get(i);
+                if (s.sources.get(i) != excludedSource && !skip.test(value)) {
+                    out.add(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls {@code action} for every value, one shard at a time with that
+     * shard locked, so it must not call back into the store.
+     */
+    <E extends Exception> void forEach(IntSet.IntProcedure<E> action) throws E {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.values.forEach(action);
+            }
+        }
+    }
+
+    /**
+     * Appends the whole set to {@code out} as sorted start/end pairs, with
+     * ranges that touch across shards merged.
+     */
+    void ranges(IntList out) {
+        IntList pairs = new IntList();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.values.forEachRange((start, end) -> {
+                    pairs.add(start);
+                    pairs.add(end);
+                });
+            }
+        }
+        // Start in the high half, so sorting the longs sorts by start
+        long[] packed = new long[pairs.size() / 2];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = ((long) pairs.get(2 * i) << 32) | (pairs.get(2 * i + 1) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < packed.length; ) {
+            int start = (int) (packed[i] >> 32);
+            int end = (int) packed[i];
+            i++;
+            while (i < packed.length && (packed[i] >> 32) <= (long) end + 1) {
+                end = Math.max(end, (int) packed[i]);
+                i++;
+            }
+            out.add(start);
+            out.add(end);
+        }
+    }
+
+    private Shard shardOf(int value) {
+        int h = (value >> BLOCK_BITS) * 0x9E3779B9;
+        return shards[(h ^ (h >>> 16)) & mask];
     }
 }